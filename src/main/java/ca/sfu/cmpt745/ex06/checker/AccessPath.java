@@ -0,0 +1,115 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * A k-limited access path such as `r0.owner.k` or `r1[]`. The root is either
+ * a local name or a static field signature, and each step is a field name or
+ * `[]` for an (index insensitive) array element.
+ *
+ * Paths that would grow beyond the limit are cut off and marked as
+ * summarized. A summarized path stands for every path sharing its prefix, so
+ * it may only ever be weakly updated.
+ */
+final class AccessPath {
+  static final String ARRAY_ELEMENT = "[]";
+
+  final String root;
+  final List<String> steps;
+  final boolean summarized;
+
+  private AccessPath(String root, List<String> steps, boolean summarized) {
+    this.root = root;
+    this.steps = steps;
+    this.summarized = summarized;
+  }
+
+  static AccessPath of(String root) {
+    return new AccessPath(root, Collections.emptyList(), false);
+  }
+
+  /**
+   * Extends this path by one step, cutting it off at `limit` steps. Extending
+   * a summarized path yields the same summary.
+   */
+  AccessPath append(String step, int limit) {
+    if (summarized) {
+      return this;
+    }
+    if (steps.size() >= limit) {
+      return new AccessPath(root, steps, true);
+    }
+    final var extended = new ArrayList<String>(steps.size() + 1);
+    extended.addAll(steps);
+    extended.add(step);
+    return new AccessPath(root, Collections.unmodifiableList(extended), false);
+  }
+
+  boolean isLocal() {
+    return steps.isEmpty() && !summarized;
+  }
+
+  /** Whether this path must be weakly updated because it names many objects. */
+  boolean isWeak() {
+    return summarized || steps.contains(ARRAY_ELEMENT);
+  }
+
+  /** Whether `other` is this path or is reached by dereferencing it. */
+  boolean isPrefixOf(AccessPath other) {
+    return root.equals(other.root)
+        && steps.size() <= other.steps.size()
+        && steps.equals(other.steps.subList(0, steps.size()));
+  }
+
+  /**
+   * This path with its prefix `from` replaced by `to`, cut off at `limit`
+   * steps. A summary below `from` stays a summary.
+   */
+  AccessPath rebase(AccessPath from, AccessPath to, int limit) {
+    if (equals(from)) {
+      return to;
+    }
+    AccessPath rebased = to;
+    for (String step : steps.subList(from.steps.size(), steps.size())) {
+      rebased = rebased.append(step, limit);
+    }
+    return summarized && !rebased.summarized ? new AccessPath(rebased.root, rebased.steps, true) : rebased;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof AccessPath)) {
+      return false;
+    }
+    final var other = (AccessPath) o;
+    return summarized == other.summarized
+        && root.equals(other.root)
+        && steps.equals(other.steps);
+  }
+
+  @Override
+  public int hashCode() {
+    return (root.hashCode() * 31 + steps.hashCode()) * 2 + (summarized ? 1 : 0);
+  }
+
+  @Override
+  public String toString() {
+    final var builder = new StringBuilder(root);
+    for (String step : steps) {
+      if (!step.equals(ARRAY_ELEMENT)) {
+        builder.append('.');
+      }
+      builder.append(step);
+    }
+    if (summarized) {
+      builder.append(".*");
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,182 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import soot.BodyTransformer;
+import soot.G;
+import soot.OptionsParseException;
+import soot.PackManager;
+import soot.PhaseOptions;
+import soot.Scene;
+import soot.SootClass;
+import soot.Transform;
+import soot.options.Options;
+
+
+/**
+ * An isolated set of Soot globals for one run of the checker.
+ *
+ * Soot keeps all of its state (Scene, Options, PackManager, ...) in the
+ * singleton returned by {@link G#v()}. A context swaps in its own {@link G}
+ * for the threads that run inside it, so independent analyses can run at the
+ * same time in one JVM. The binding is inherited by threads started from
+ * inside the context, which covers the workers Soot spawns for body packs.
+ * Threads outside of any context keep sharing Soot's usual global instance.
+ *
+ * The binding follows threads, not tasks. Threads that already exist when a
+ * context is entered, such as pool workers, never see it: work handed to
+ * them must go through {@link #currentContext()}, or it runs against the
+ * shared globals. Workers of the common fork-join pool never inherit a
+ * context at all. A thread started inside a context keeps it for its whole
+ * life, so a pool created during a run keeps that run's globals alive.
+ */
+public final class KittenAnalysisContext {
+  private static final String PHASE_NAME = "jtp.KittenChecker";
+
+  private static final InheritableThreadLocal<KittenAnalysisContext> CURRENT =
+    new InheritableThreadLocal<>();
+  private static boolean installed = false;
+
+  private final String sootClasspath;
+  private volatile G globals;
+
+  /** A context whose Soot classpath is taken from the command line. */
+  public KittenAnalysisContext() {
+    this((String) null);
+  }
+
+  public KittenAnalysisContext(String sootClasspath) {
+    this.sootClasspath = sootClasspath;
+    this.globals = new G();
+    installGlobalObjectGetter();
+  }
+
+  /**
+   * Runs `task` with this context's Soot globals in effect, on the calling
+   * thread and on threads it starts. Pool threads that `task` hands work to
+   * need {@link #currentContext()}.
+   */
+  public <T> T call(Supplier<T> task) {
+    final KittenAnalysisContext previous = CURRENT.get();
+    CURRENT.set(this);
+    try {
+      return task.get();
+    } finally {
+      CURRENT.set(previous);
+    }
+  }
+
+  /**
+   * Runs tasks in the context the caller is in now, on whichever thread
+   * executes them. Pool threads, such as fork-join workers, do not inherit
+   * a context from the threads that hand them work.
+   */
+  public static Executor currentContext() {
+    final KittenAnalysisContext context = CURRENT.get();
+    return task -> {
+      final KittenAnalysisContext previous = CURRENT.get();
+      CURRENT.set(context);
+      try {
+        task.run();
+      } finally {
+        CURRENT.set(previous);
+      }
+    };
+  }
+
+  /**
+   * Runs the checker with Soot's command line `args` in a fresh set of
+   * globals, sending errors to `reporter`. It may be called from a pool
+   * thread, since Soot starts its own workers inside the context. Bodies
+   * solved on the common fork-join pool carry the context over explicitly.
+   */
+  public void check(KittenErrorReporter reporter, String... args) {
+    final var checker = new KittenChecker(reporter);
+    check(checker, checker, args);
+  }
+
+  /**
+   * Runs `checker` through `transformer`, which stands in for it in the
+   * `jtp.KittenChecker` phase. Lets a harness observe every body the
+   * checker transforms, e.g. to measure it.
+   *
+   * Soot is driven step by step rather than through soot.Main so that the
+   * checker sees the loaded Scene once, on this thread, before the body
+   * packs start transforming bodies on Soot's pool threads.
+   */
+  void check(KittenChecker checker, BodyTransformer transformer, String... args) {
+    call(() -> {
+      resetSoot(transformer);
+      if (!Options.v().parse(args)) {
+        throw new OptionsParseException("Option parse error");
+      }
+      if (Options.v().help() || Options.v().version() || Options.v().phase_list()
+          || !Options.v().phase_help().isEmpty()
+          || Options.v().classes().isEmpty() && Options.v().process_dir().isEmpty()) {
+        // soot.Main prints usage, versions or help, or complains that there is
+        // nothing to analyze, and stops before loading anything. It parses the
+        // arguments again, so it needs fresh options.
+        resetSoot(transformer);
+        soot.Main.main(args);
+        return null;
+      }
+      soot.Main.v().autoSetOptions();
+
+      final Map<String, String> options = PhaseOptions.v().getPhaseOptions(PHASE_NAME);
+      for (TypestateProtocol protocol : checker.protocolsFor(options).protocols()) {
+        Scene.v().addBasicClass(protocol.trackedClass(), SootClass.SIGNATURES);
+      }
+      Scene.v().addBasicClass(KittenMonitorInstrumenter.MONITOR_CLASS,
+                              SootClass.SIGNATURES);
+      Scene.v().loadNecessaryClasses();
+      checker.prepare(options);
+      PackManager.v().runPacks();
+      if (!Options.v().oaat()) {
+        PackManager.v().writeOutput();
+      }
+      return null;
+    });
+  }
+
+  /** Starts from fresh Soot globals with `transformer` as the checker's phase. */
+  private void resetSoot(BodyTransformer transformer) {
+    G.reset();
+    Options.v().set_keep_line_number(true);
+    if (sootClasspath != null) {
+      Options.v().set_soot_classpath(sootClasspath);
+    }
+    final var transform = new Transform(PHASE_NAME, transformer);
+    transform.setDeclaredOptions(KittenChecker.DECLARED_OPTIONS);
+    transform.setDefaultOptions(KittenChecker.DEFAULT_OPTIONS);
+    PackManager.v().getPack("jtp").add(transform);
+  }
+
+  private static synchronized void installGlobalObjectGetter() {
+    if (installed) {
+      return;
+    }
+    final KittenAnalysisContext shared = new KittenAnalysisContext(G.v());
+    G.setGlobalObjectGetter(new G.GlobalObjectGetter() {
+      @Override
+      public G getG() {
+        final KittenAnalysisContext context = CURRENT.get();
+        return (context != null ? context : shared).globals;
+      }
+
+      @Override
+      public void reset() {
+        final KittenAnalysisContext context = CURRENT.get();
+        (context != null ? context : shared).globals = new G();
+      }
+    });
+    installed = true;
+  }
+
+  /** The context used by threads that are not inside any other context. */
+  private KittenAnalysisContext(G globals) {
+    this.sootClasspath = null;
+    this.globals = globals;
+  }
+}
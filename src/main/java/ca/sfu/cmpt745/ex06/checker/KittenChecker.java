@@ -1,12 +1,19 @@
 package ca.sfu.cmpt745.ex06.checker;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.EnumSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 
 import soot.Body;
 import soot.BodyTransformer;
 import soot.G;
 import soot.Local;
+import soot.PhaseOptions;
 import soot.RefType;
 import soot.SootClass;
 import soot.SootMethod;
@@ -25,94 +32,623 @@ import soot.toolkits.scalar.ForwardFlowAnalysis;
 import java.util.HashMap;
 
 public class KittenChecker extends BodyTransformer {
+    /**
+     * Phase options understood by the checker, e.g. `-p jtp.KittenChecker k-limit:2`.
+     * `protocols` replaces the built-in protocols with a colon separated list of
+     * {@link TypestateProtocol} classes. `entry-points` restricts checking to
+     * methods reachable from a colon separated list of classes or
+     * `Class.method` names through a `call-graph` of `cha` or `rta`.
+     * `summaries` is a colon separated list of {@link LibrarySummaries} bundles.
+     * Bodies of at least `parallel-threshold` units have their {@link RegionFixedPoint}
+     * regions solved in parallel; 0 solves every body on the thread Soot gives it.
+     */
+    static final String DECLARED_OPTIONS =
+        "enabled k-limit hybrid protocols entry-points call-graph summaries parallel-threshold";
+    static final int DEFAULT_ACCESS_PATH_LIMIT = 3;
+    static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+    static final String DEFAULT_OPTIONS =
+        "enabled:true k-limit:" + DEFAULT_ACCESS_PATH_LIMIT + " hybrid:false call-graph:cha"
+        + " parallel-threshold:" + DEFAULT_PARALLEL_THRESHOLD;
+
     final KittenErrorReporter reporter;
+    final int accessPathLimit;
+    final ProtocolRegistry protocols;
+    // The registry named by the `protocols` phase option, loaded on first use.
+    private volatile ProtocolRegistry configuredProtocols = null;
+    // Methods reachable from the `entry-points` phase option, built by prepare().
+    private Set<SootMethod> reachableMethods = null;
+    // The bundles named by the `summaries` phase option, mapped on first use.
+    private volatile LibrarySummaries librarySummaries = null;
 
     KittenChecker(KittenErrorReporter reporter) {
+        this(reporter, DEFAULT_ACCESS_PATH_LIMIT, ProtocolRegistry.defaults());
+    }
+
+    KittenChecker(KittenErrorReporter reporter, int accessPathLimit, ProtocolRegistry protocols) {
         this.reporter = reporter;
+        this.accessPathLimit = checkAccessPathLimit(accessPathLimit);
+        this.protocols = protocols;
+    }
+
+    private static int checkAccessPathLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("k-limit must be at least 1, not " + limit);
+        }
+        return limit;
     }
 
     @Override
-    protected void internalTransform(Body body, String phase, Map options) {
+    protected void internalTransform(Body body, String phase, Map<String, String> options) {
+        ProtocolRegistry registry = protocolsFor(options);
+        Set<SootMethod> reachable = reachableFor(options);
+        if (reachable != null) {
+            SootMethod method = body.getMethod();
+            String reason = !reachable.contains(method) ? "unreachable"
+                : !registry.usesTrackedTypes(body) ? "no tracked types"
+                : null;
+            if (reason != null) {
+                reporter.reportSkipped(method.getDeclaringClass().getName(), method.getSubSignature(), reason);
+                return;
+            }
+        }
+
+        int limit = accessPathLimit;
+        if (options.containsKey("k-limit")) {
+            limit = checkAccessPathLimit(PhaseOptions.getInt(options, "k-limit"));
+        }
+        // In hybrid mode, calls that are only wrong on some paths are checked at runtime instead.
+        boolean hybrid = PhaseOptions.getBoolean(options, "hybrid");
+        int parallelThreshold = options.containsKey("parallel-threshold")
+            ? PhaseOptions.getInt(options, "parallel-threshold")
+            : DEFAULT_PARALLEL_THRESHOLD;
+        // All protocols share one graph and one fixed point.
         UnitGraph graph = new ExceptionalUnitGraph(body);
-        KittenAnalysis analysis = new KittenAnalysis(graph, reporter);
+        KittenAnalysis analysis = new KittenAnalysis(graph, reporter, registry, summariesFor(options), limit, hybrid,
+                                                     parallelThreshold);
+        analysis.reportErrors();
+        if (hybrid) {
+            analysis.reportOrMonitor();
+        }
+    }
+
+    ProtocolRegistry protocolsFor(Map<String, String> options) {
+        String classNames = PhaseOptions.getString(options, "protocols");
+        if (classNames.isEmpty()) {
+            return protocols;
+        }
+        if (configuredProtocols == null) {
+            synchronized (this) {
+                if (configuredProtocols == null) {
+                    configuredProtocols = ProtocolRegistry.fromClassNames(classNames);
+                }
+            }
+        }
+        return configuredProtocols;
+    }
+
+    /**
+     * Reads the options that need the whole Scene, once the classes are
+     * loaded. Runs on one thread before Soot starts transforming bodies,
+     * because walking the reachable methods retrieves their bodies.
+     */
+    void prepare(Map<String, String> options) {
+        String entryPoints = PhaseOptions.getString(options, "entry-points");
+        if (!entryPoints.isEmpty()) {
+            ReachableMethods.Algorithm algorithm = ReachableMethods.Algorithm.valueOf(
+                PhaseOptions.getString(options, "call-graph").toUpperCase());
+            reachableMethods = ReachableMethods.from(List.of(entryPoints.split(":")), algorithm);
+        }
+    }
+
+    /** The methods worth checking, or null when every method is checked. */
+    private Set<SootMethod> reachableFor(Map<String, String> options) {
+        if (reachableMethods == null && !PhaseOptions.getString(options, "entry-points").isEmpty()) {
+            throw new IllegalStateException("entry-points needs the reachable methods built by prepare()");
+        }
+        return reachableMethods;
     }
 
-    private class KittenAnalysis extends ForwardFlowAnalysis<Unit, Map<String, String>> {
+    /** The library summaries to use in place of library bodies, or null. */
+    private LibrarySummaries summariesFor(Map<String, String> options) {
+        String bundles = PhaseOptions.getString(options, "summaries");
+        if (bundles.isEmpty()) {
+            return null;
+        }
+        if (librarySummaries == null) {
+            synchronized (this) {
+                if (librarySummaries == null) {
+                    List<Path> files = new ArrayList<>();
+                    for (String bundle : bundles.split(":")) {
+                        files.add(Path.of(bundle));
+                    }
+                    librarySummaries = LibrarySummaries.load(files);
+                }
+            }
+        }
+        return librarySummaries;
+    }
+
+    private class KittenAnalysis extends ForwardFlowAnalysis<Unit, KittenFlow>
+            implements RegionFixedPoint.Analysis<Unit, KittenFlow> {
         private final UnitGraph graph;
         private final KittenErrorReporter reporter;
+        private final ProtocolRegistry protocols;
+        private final LibrarySummaries summaries;
+        private final int limit;
+        private final boolean hybrid;
+        private final int parallelThreshold;
+        // Errors are only reported once the flows are stable, by reportErrors().
+        private boolean reporting = false;
 
-        public KittenAnalysis(UnitGraph graph, KittenErrorReporter reporter) {
+        public KittenAnalysis(UnitGraph graph, KittenErrorReporter reporter, ProtocolRegistry protocols,
+                              LibrarySummaries summaries, int limit, boolean hybrid, int parallelThreshold) {
             super(graph);
             this.graph = graph;
             this.reporter = reporter;
+            this.protocols = protocols;
+            this.summaries = summaries;
+            this.limit = limit;
+            this.hybrid = hybrid;
+            this.parallelThreshold = parallelThreshold;
             doAnalysis();
         }
 
+        /**
+         * Solves the body region by region, on the common fork-join pool when it
+         * is large. Either way the flows are the same, so results do not depend
+         * on the threshold. Flows are shared between threads, but each is only
+         * written by the region that owns it, before any later region reads it.
+         */
         @Override
-        protected Map<String, String> newInitialFlow() {
-            return new HashMap<>();
+        protected void doAnalysis() {
+            RegionFixedPoint<Unit, KittenFlow> fixedPoint = new RegionFixedPoint<>(graph, this);
+            if (parallelThreshold > 0 && graph.size() >= parallelThreshold) {
+                fixedPoint.solve(ForkJoinPool.commonPool(), unitToBeforeFlow, unitToAfterFlow);
+            } else {
+                fixedPoint.solve(unitToBeforeFlow, unitToAfterFlow);
+            }
+        }
+
+        /**
+         * Reports the errors of every call once the analysis is stable. While
+         * it iterates, a call may be visited many times, some of them with
+         * states that never hold at the fixed point.
+         */
+        void reportErrors() {
+            reporting = true;
+            KittenFlow scratch = new KittenFlow();
+            for (Unit unit : graph) {
+                KittenFlow before = getFlowBefore(unit);
+                if (before != null && ((Stmt) unit).containsInvokeExpr()) {
+                    flowThrough(before, unit, scratch);
+                }
+            }
+            reporting = false;
+        }
+
+        /**
+         * Classifies every call once the analysis is stable. Calls that are
+         * illegal from all possible states are reported. Calls that are legal
+         * from only some of them are handed to the {@link KittenMonitorInstrumenter}
+         * when the object is only held in a local; objects in the heap may be
+         * shared, so those calls fall back to the static report.
+         */
+        void reportOrMonitor() {
+            List<Unit> monitored = new ArrayList<>();
+            for (Unit unit : graph) {
+                TypestateProtocol protocol = protocols.protocolAt(unit);
+                if (protocol == null) {
+                    continue;
+                }
+                InstanceInvokeExpr invokeExpr = ProtocolRegistry.instanceInvokeOf(unit);
+                KittenFlow before = getFlowBefore(unit);
+                String variableName = invokeExpr.getBase().toString();
+                AccessPath path = before.resolve(variableName);
+                String methodName = invokeExpr.getMethod().getName();
+                int method = protocol.methodCode(methodName);
+                TypeState currentState = before.stateOf(path, protocol);
+                int mask = currentState.possible;
+                int legal = protocol.legalStates(mask, method);
+                if (legal == mask) {
+                    continue;
+                }
+
+                int line = unit.getJavaSourceStartLineNumber();
+                if (legal != 0 && path.isLocal() && before.mustAliases(path, limit).isEmpty()
+                    && !before.origins.containsKey(path.root)) {
+                    SootMethod sootMethod = graph.getBody().getMethod();
+                    reporter.reportMonitor(sootMethod.getDeclaringClass().getName(), sootMethod.getSubSignature(),
+                                           variableName, line);
+                    monitored.add(unit);
+                    continue;
+                }
+                int sourceState = currentState.state;
+                if (legal == 0 && protocol.transition(sourceState, method) != TypestateProtocol.ILLEGAL) {
+                    // The single state is a join, so name one of the actual states instead.
+                    sourceState = Integer.numberOfTrailingZeros(mask);
+                }
+                if (protocol.transition(sourceState, method) == TypestateProtocol.ILLEGAL) {
+                    reportError(variableName, unit, protocol.targetState(methodName), protocol.stateName(sourceState));
+                }
+            }
+            if (!monitored.isEmpty()) {
+                new KittenMonitorInstrumenter(graph.getBody(), protocols, this::getFlowBefore, this::getFlowAfter)
+                    .instrument(monitored);
+            }
+        }
+
+        private void reportError(String variableName, Unit unit, String targetState, String sourceState) {
+            int line = unit.getJavaSourceStartLineNumber();
+            SootMethod method = graph.getBody().getMethod();
+            reporter.reportError(method.getDeclaringClass().getName(), method.getSubSignature(),
+                                 variableName, line, targetState, sourceState);
         }
 
         @Override
-        protected Map<String, String> entryInitialFlow() {
-            return new HashMap<>();
+        public KittenFlow newInitialFlow() {
+            return KittenFlow.unreached();
         }
 
         @Override
-        protected void merge(Map<String, String> in1, Map<String, String> in2, Map<String, String> out) {
-            out.clear();
-            out.putAll(in1);
-            in2.forEach((key, value) -> out.putIfAbsent(key, value));
+        public KittenFlow entryInitialFlow() {
+            return new KittenFlow();
         }
 
         @Override
-        protected void copy(Map<String, String> source, Map<String, String> dest) {
-            dest.clear();
-            dest.putAll(source);
+        public void merge(KittenFlow in1, KittenFlow in2, KittenFlow out) {
+            // A side that no path reaches yet has no paths in their initial state either.
+            if (in1.unreached || in2.unreached) {
+                out.copyFrom(in1.unreached ? in2 : in1);
+                return;
+            }
+            out.unreached = false;
+
+            // The report state comes from in1 where it has one. Possible states
+            // are unioned, and a path missing on one side is in its initial state there.
+            out.states.clear();
+            in1.states.forEach((key, state1) -> {
+                TypeState state2 = in2.states.get(key);
+                out.states.put(key, state2 != null ? state1.mergedWith(state2) : state1.orInitial());
+            });
+            in2.states.forEach((key, state2) -> {
+                if (!in1.states.containsKey(key)) {
+                    out.states.put(key, state2.orInitial());
+                }
+            });
+
+            // A local only keeps its alias or origin when it must refer to the same path on
+            // both sides, and paths only stay linked when they are linked on both sides.
+            out.aliases.clear();
+            in1.aliases.forEach((local, path) -> {
+                if (path.equals(in2.aliases.get(local))) {
+                    out.aliases.put(local, path);
+                }
+            });
+            out.origins.clear();
+            in1.origins.forEach((local, path) -> {
+                if (path.equals(in2.origins.get(local))) {
+                    out.origins.put(local, path);
+                }
+            });
+            out.links.clear();
+            in1.links.forEach((target, source) -> {
+                if (source.equals(in2.links.get(target))) {
+                    out.links.put(target, source);
+                }
+            });
         }
 
         @Override
-        protected void flowThrough(Map<String, String> current, Unit unit, Map<String, String> next) {
-            next.putAll(current); 
-
-            if (unit instanceof InvokeStmt) {
-                InvokeStmt stmt = (InvokeStmt) unit;
-                InvokeExpr invokeExpr = stmt.getInvokeExpr();
-                if (invokeExpr instanceof InstanceInvokeExpr) {
-                    InstanceInvokeExpr instanceInvokeExpr = (InstanceInvokeExpr) invokeExpr;
-                    String variableName = instanceInvokeExpr.getBase().toString();
-                    String methodName = invokeExpr.getMethod().getName();
-                    String currentState = current.getOrDefault(variableName, "sleeping");
-                    String newState = mapMethodNameToState(methodName);
-                    boolean validTransition = isValidTransition(currentState, methodName);
-                    if (!validTransition) {
-                        int line = unit.getJavaSourceStartLineNumber();
-                        reporter.reportError(variableName, line, newState, currentState);
-                    } else {
-                        next.put(variableName, newState);
+        public void copy(KittenFlow source, KittenFlow dest) {
+            dest.copyFrom(source);
+        }
+
+        @Override
+        public void flowThrough(KittenFlow current, Unit unit, KittenFlow next) {
+            next.copyFrom(current);
+            if (current.unreached) {
+                return;
+            }
+
+            TypestateProtocol protocol = protocols.protocolAt(unit);
+            if (protocol == null && summaries != null && ((Stmt) unit).containsInvokeExpr()) {
+                MethodSummary summary = summaries.summaryOf(((Stmt) unit).getInvokeExpr().getMethodRef());
+                if (summary != null) {
+                    flowSummary(summary, (Stmt) unit, current, next);
+                    return;
+                }
+            }
+
+            if (protocol != null) {
+                // One lookup found the protocol of the call, whichever protocols are registered.
+                InstanceInvokeExpr invokeExpr = ProtocolRegistry.instanceInvokeOf(unit);
+                String variableName = invokeExpr.getBase().toString();
+                flowCall(protocol, variableName, current.resolve(variableName), invokeExpr.getMethod().getName(),
+                         unit, hybrid, current, next);
+                if (unit instanceof DefinitionStmt) {
+                    // As with any other call, the result is an object the analysis knows nothing about.
+                    Value left = ((DefinitionStmt) unit).getLeftOp();
+                    if (left instanceof Local) {
+                        killLocal(((Local) left).getName(), next);
+                    }
+                }
+            } else if (unit instanceof DefinitionStmt) {
+                DefinitionStmt stmt = (DefinitionStmt) unit;
+                Value left = stmt.getLeftOp();
+                Value right = stmt.getRightOp();
+                if (left instanceof Local) {
+                    flowLoad(((Local) left).getName(), right, current, next);
+                } else if (right instanceof Local) {
+                    flowStore(left, ((Local) right).getName(), current, next);
+                }
+            }
+        }
+
+        /**
+         * Handles a call of `methodName` on the object at `path`, which follows
+         * `protocol`. With `deferred`, errors are left to {@link #reportOrMonitor}.
+         */
+        private void flowCall(TypestateProtocol protocol, String variableName, AccessPath path, String methodName,
+                              Unit unit, boolean deferred, KittenFlow current, KittenFlow next) {
+            int method = protocol.methodCode(methodName);
+            TypeState currentState = current.stateOf(path, protocol);
+            int newState = protocol.stateCode(protocol.targetState(methodName));
+            boolean validTransition = protocol.transition(currentState.state, method) != TypestateProtocol.ILLEGAL;
+
+            // Calls from illegal states leave the object as it was.
+            int mask = currentState.possible;
+            int legal = protocol.legalStates(mask, method);
+            int newMask = mask & ~legal;
+            if (legal != 0) {
+                newMask |= 1 << newState;
+            }
+
+            TypeState changed;
+            if (!validTransition) {
+                if (!deferred && reporting) {
+                    reportError(variableName, unit, protocol.stateName(newState), currentState.stateName());
+                }
+                changed = new TypeState(protocol, currentState.state, newMask);
+            } else {
+                changed = new TypeState(protocol, newState, newMask);
+            }
+            setState(path, changed, current, next);
+        }
+
+        /**
+         * Gives the object at `path` the state `changed`, wherever it is held.
+         * Only one of the objects a weak path summarizes changed, so the
+         * others keep their state. That includes the summaries that locals
+         * holding the object were loaded from.
+         */
+        private void setState(AccessPath path, TypeState changed, KittenFlow current, KittenFlow next) {
+            List<AccessPath> held = current.mustAliases(path, limit);
+            held.add(path);
+            for (AccessPath other : held) {
+                next.states.put(other, other.isWeak() ? current.stateOf(other, changed.protocol).joinedWith(changed)
+                                                      : changed);
+                AccessPath origin = current.origins.get(other.root);
+                if (origin != null) {
+                    AccessPath summary = other.rebase(AccessPath.of(other.root), origin, limit);
+                    next.states.put(summary, current.stateOf(summary, changed.protocol).joinedWith(changed));
+                }
+            }
+        }
+
+        /**
+         * Applies a library method's summary in place of its body. Library
+         * containers hold their elements in the summarized `[]` path, as arrays do.
+         */
+        private void flowSummary(MethodSummary summary, Stmt stmt, KittenFlow current, KittenFlow next) {
+            InvokeExpr invokeExpr = stmt.getInvokeExpr();
+            Local base = invokeExpr instanceof InstanceInvokeExpr
+                ? (Local) ((InstanceInvokeExpr) invokeExpr).getBase()
+                : null;
+            AccessPath result = null;
+            TypeState wrapped = null;
+            TypeState alternative = null;
+            for (MethodSummary.Effect effect : summary.effects) {
+                Local argument = effect.argument == MethodSummary.RECEIVER ? base
+                    : effect.argument < invokeExpr.getArgCount() && invokeExpr.getArg(effect.argument) instanceof Local
+                    ? (Local) invokeExpr.getArg(effect.argument)
+                    : null;
+                if (argument == null) {
+                    continue;
+                }
+                AccessPath path = next.resolve(argument.getName());
+                TypeState state = next.states.get(path);
+                TypestateProtocol protocol = state != null ? state.protocol : protocols.protocolOf(argument.getType());
+                switch (effect.kind) {
+                    case CALL:
+                        for (String methodName : effect.methods) {
+                            if (protocol != null) {
+                                flowCall(protocol, argument.getName(), path, methodName, stmt, false, next, next);
+                            }
+                        }
+                        break;
+                    case HAVOC:
+                        // Unknown silences static reports on the object, as a join to unknown does.
+                        if (protocol != null) {
+                            setState(path, TypeState.unknown(protocol), next, next);
+                        }
+                        break;
+                    case STORE:
+                        if (base != null) {
+                            weakStore(next.resolve(base.getName()).append(AccessPath.ARRAY_ELEMENT, limit),
+                                      path, next, next);
+                        }
+                        break;
+                    case LOAD:
+                        result = path.append(AccessPath.ARRAY_ELEMENT, limit);
+                        break;
+                    case RETURN:
+                        result = path;
+                        break;
+                    case WRAP:
+                        wrapped = state;
+                        break;
+                    case MAY_RETURN:
+                        if (protocol != null) {
+                            alternative = next.stateOf(path, protocol);
+                        }
+                        break;
+                }
+            }
+
+            if (stmt instanceof DefinitionStmt && ((DefinitionStmt) stmt).getLeftOp() instanceof Local) {
+                String local = ((Local) ((DefinitionStmt) stmt).getLeftOp()).getName();
+                KittenFlow effects = new KittenFlow();
+                effects.copyFrom(next);
+                if (alternative != null) {
+                    // The result may be either object, so it gets the join of their states instead of an alias.
+                    TypeState other = result != null ? effects.stateOf(result, alternative.protocol) : alternative;
+                    killLocal(local, next);
+                    next.states.put(AccessPath.of(local), other.joinedWith(alternative));
+                } else {
+                    bind(local, result, effects, next);
+                }
+                if (wrapped != null) {
+                    next.states.put(AccessPath.of(local).append(AccessPath.ARRAY_ELEMENT, limit), wrapped);
+                }
+            }
+        }
+
+        /** Handles `local = right`, where `right` may read a field or array element. */
+        private void flowLoad(String local, Value right, KittenFlow current, KittenFlow next) {
+            if (right instanceof CastExpr && ((CastExpr) right).getOp() instanceof Local) {
+                right = ((CastExpr) right).getOp();
+            }
+            AccessPath source = right instanceof Local
+                ? current.resolve(((Local) right).getName())
+                : pathOf(right, current);
+            bind(local, source, current, next);
+        }
+
+        /**
+         * Makes `local` refer to the object at `source`, or to an untracked one
+         * when it is null. A weak `source` names many objects, so `local` only
+         * starts from their joined states, and then tracks its own object.
+         */
+        private void bind(String local, AccessPath source, KittenFlow current, KittenFlow next) {
+            killLocal(local, next);
+            if (source == null) {
+                return;
+            }
+            if (source.root.equals(local)) {
+                // The path is rooted at the old value of `local`, so only its state can survive.
+                if (current.states.containsKey(source)) {
+                    next.states.put(AccessPath.of(local), current.states.get(source));
+                }
+            } else if (source.isWeak()) {
+                AccessPath held = AccessPath.of(local);
+                for (var entry : current.states.entrySet()) {
+                    AccessPath path = entry.getKey();
+                    if (path.equals(source) || (!source.summarized && source.isPrefixOf(path))) {
+                        next.states.put(path.rebase(source, held, limit), entry.getValue());
                     }
                 }
+                next.origins.put(local, source);
+            } else {
+                next.aliases.put(local, source);
             }
         }
 
-        private boolean isValidTransition(String currentState, String methodName) {
-            switch (methodName) {
-                case "pet": return !currentState.equals("running") && !currentState.equals("playing");
-                case "tease": return !currentState.equals("sleeping") && !currentState.equals("eating");
-                case "ignore": return !currentState.equals("sleeping") && !currentState.equals("eating") && !currentState.equals("playing");
-                case "scare": return true; 
-                default: return true; 
+        /**
+         * Handles `left = local`, where `left` is a field or array element. A
+         * strongly updated `left` takes the states of the stored object and of
+         * the objects below it, and stays linked to where `local` finds them.
+         */
+        private void flowStore(Value left, String local, KittenFlow current, KittenFlow next) {
+            AccessPath target = pathOf(left, current);
+            if (target == null) {
+                return;
+            }
+            if (target.isWeak()) {
+                weakStore(target, current.resolve(local), current, next);
+                return;
+            }
+            killPathsBelow(target, next);
+            // The local may have been loaded from below `target`, and then took over its object.
+            AccessPath source = next.resolve(local);
+            for (var entry : new ArrayList<>(next.states.entrySet())) {
+                AccessPath path = entry.getKey();
+                if (path.equals(source) || (!source.summarized && source.isPrefixOf(path))) {
+                    next.states.put(path.rebase(source, target, limit), entry.getValue());
+                }
             }
+            next.link(target, source);
         }
 
-        private String mapMethodNameToState(String methodName) {
-            switch (methodName) {
-                case "pet": return "sleeping";
-                case "feed": return "eating";
-                case "tease": return "playing";
-                case "ignore": return "plotting";
-                case "scare": return "running";
-                default: return "unknown"; 
+        /** Adds the object at `source` to the objects a weak `target` may hold. */
+        private void weakStore(AccessPath target, AccessPath source, KittenFlow current, KittenFlow next) {
+            // Either side may be missing, meaning the initial state of the other's protocol.
+            TypeState stored = current.states.get(source);
+            TypeState existing = current.states.get(target);
+            if (stored != null || existing != null) {
+                TypestateProtocol protocol = (stored != null ? stored : existing).protocol;
+                next.states.put(target, current.stateOf(target, protocol)
+                                            .joinedWith(current.stateOf(source, protocol)));
+            }
+        }
+
+        /** The k-limited path named by a field or array reference, or null for any other value. */
+        private AccessPath pathOf(Value value, KittenFlow flow) {
+            if (value instanceof InstanceFieldRef) {
+                InstanceFieldRef ref = (InstanceFieldRef) value;
+                return flow.resolve(ref.getBase().toString()).append(ref.getField().getName(), limit);
+            } else if (value instanceof StaticFieldRef) {
+                return AccessPath.of(((StaticFieldRef) value).getField().getSignature());
+            } else if (value instanceof ArrayRef) {
+                ArrayRef ref = (ArrayRef) value;
+                return flow.resolve(ref.getBase().toString()).append(AccessPath.ARRAY_ELEMENT, limit);
+            }
+            return null;
+        }
+
+        /**
+         * Forgets everything reached through `local` before it is overwritten.
+         * Locals that were loaded through it still refer to the old objects, so
+         * they take over the states they observed.
+         */
+        private void killLocal(String local, KittenFlow flow) {
+            flow.aliases.remove(local);
+            flow.origins.remove(local);
+            detachAliases(path -> path.root.equals(local), flow);
+            flow.removeIf(path -> path.root.equals(local));
+        }
+
+        /** Drops states, aliases and links for a strongly updated path and the paths below it. */
+        private void killPathsBelow(AccessPath target, KittenFlow flow) {
+            detachAliases(path -> target.isPrefixOf(path), flow);
+            flow.removeIf(path -> !path.isLocal() && target.isPrefixOf(path));
+        }
+
+        /**
+         * Hands the objects at paths that are about to be forgotten to the
+         * locals that were loaded from them. The first such local takes over
+         * the state and links of a path, and later ones alias that local.
+         */
+        private void detachAliases(Predicate<AccessPath> forgotten, KittenFlow flow) {
+            Map<AccessPath, AccessPath> takenOver = new HashMap<>();
+            for (var iterator = flow.aliases.entrySet().iterator(); iterator.hasNext();) {
+                var entry = iterator.next();
+                AccessPath path = entry.getValue();
+                if (!forgotten.test(path)) {
+                    continue;
+                }
+                AccessPath holder = takenOver.get(path);
+                if (holder != null) {
+                    entry.setValue(holder);
+                    continue;
+                }
+                holder = AccessPath.of(entry.getKey());
+                flow.copyState(path, holder);
+                flow.relink(path, holder);
+                if (path.isLocal() && flow.origins.containsKey(path.root)) {
+                    flow.origins.put(holder.root, flow.origins.get(path.root));
+                }
+                takenOver.put(path, holder);
+                iterator.remove();
             }
         }
     }
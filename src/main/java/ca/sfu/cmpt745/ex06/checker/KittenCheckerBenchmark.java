@@ -0,0 +1,274 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import soot.Scene;
+import soot.SootMethod;
+
+
+/**
+ * End-to-end scaling benchmark for the checker. The examples and synthetic
+ * jars of growing size are each checked at several thread counts. Every run
+ * happens in a fresh JVM so that peak resident memory and GC time belong to
+ * that run alone. Results go to `kitten-benchmark.csv`, one row per run, so
+ * reports from different machines or revisions can be compared directly.
+ *
+ * Usage: KittenCheckerBenchmark [--sizes 50,200,800] [--methods 20]
+ *                               [--threads 1,2,4] [--out kitten-benchmark.csv]
+ * where sizes count synthetic classes.
+ */
+public class KittenCheckerBenchmark {
+  static final String SOOT_CLASSPATH = "target/classes:VIRTUAL_FS_FOR_JDK";
+  static final String EXAMPLES = "ca.sfu.cmpt745.ex06.examples";
+  static final String RESULT_PREFIX = "RESULT,";
+  static final String HEADER =
+    "corpus,classes,methods,threads,wall_ms,methods_per_second,errors,peak_rss_mb,peak_heap_mb,gc_ms";
+
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("--run")) {
+      runOnce(args[1], Integer.parseInt(args[2]), Arrays.copyOfRange(args, 3, args.length));
+      return;
+    }
+
+    List<Integer> sizes = List.of(50, 200, 800);
+    int methodsPerClass = 20;
+    List<Integer> threads = defaultThreadCounts();
+    Path report = Path.of("kitten-benchmark.csv");
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--sizes":   sizes = parseList(args[i + 1]); break;
+        case "--methods": methodsPerClass = Integer.parseInt(args[i + 1]); break;
+        case "--threads": threads = parseList(args[i + 1]); break;
+        case "--out":     report = Path.of(args[i + 1]); break;
+        default:
+          throw new IllegalArgumentException("Unknown benchmark option " + args[i]);
+      }
+    }
+
+    final Path work = Files.createTempDirectory("kitten-benchmark");
+    final List<String> rows = new ArrayList<>();
+    System.out.println(HEADER);
+    for (int count : threads) {
+      rows.add(runChild("examples", count, exampleArgs()));
+    }
+    for (int size : sizes) {
+      final Path jar = SyntheticCorpus.write(work, size, methodsPerClass);
+      for (int count : threads) {
+        rows.add(runChild("synthetic-" + size, count, new String[] { "-process-dir", jar.toString() }));
+      }
+    }
+
+    try (final PrintStream out = new PrintStream(report.toFile(), StandardCharsets.UTF_8)) {
+      out.println(HEADER);
+      rows.forEach(out::println);
+    }
+    System.out.println("Wrote " + report);
+  }
+
+  /** Runs one configuration in this JVM and prints its result row. */
+  private static void runOnce(String corpus, int threads, String[] sootArgs) {
+    final var errors = new AtomicInteger();
+    final KittenErrorReporter reporter = (variable, line, target, source) -> errors.incrementAndGet();
+    final var context = new KittenAnalysisContext(SOOT_CLASSPATH);
+
+    final String[] args = Stream.concat(
+        Stream.of("-num-threads", Integer.toString(threads), "-f", "n", "-allow-phantom-refs"),
+        Arrays.stream(sootArgs))
+      .toArray(String[]::new);
+    final long start = System.nanoTime();
+    context.check(reporter, args);
+    final long wallNanos = System.nanoTime() - start;
+
+    final int[] counts = context.call(() -> new int[] {
+      Scene.v().getApplicationClasses().size(),
+      (int) Scene.v().getApplicationClasses().stream()
+        .flatMap(sootClass -> sootClass.getMethods().stream())
+        .filter(SootMethod::isConcrete)
+        .count()
+    });
+    final long gcMillis = ManagementFactory.getGarbageCollectorMXBeans().stream()
+      .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+      .filter(time -> time > 0)
+      .sum();
+    final long peakHeap = ManagementFactory.getMemoryPoolMXBeans().stream()
+      .filter(pool -> pool.getType() == java.lang.management.MemoryType.HEAP)
+      .mapToLong(pool -> pool.getPeakUsage().getUsed())
+      .sum();
+
+    System.out.println(RESULT_PREFIX + String.join(",",
+      corpus,
+      Integer.toString(counts[0]),
+      Integer.toString(counts[1]),
+      Integer.toString(threads),
+      Long.toString(wallNanos / 1_000_000),
+      String.format("%.1f", counts[1] / (wallNanos / 1e9)),
+      Integer.toString(errors.get()),
+      Long.toString(peakResidentKilobytes() / 1024),
+      Long.toString(peakHeap / (1024 * 1024)),
+      Long.toString(gcMillis)));
+  }
+
+  private static String runChild(String corpus, int threads, String[] sootArgs)
+      throws IOException, InterruptedException {
+    final List<String> command = new ArrayList<>(List.of(
+      Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+      "-classpath", System.getProperty("java.class.path"),
+      KittenCheckerBenchmark.class.getName(), "--run", corpus, Integer.toString(threads)));
+    command.addAll(Arrays.asList(sootArgs));
+
+    final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    String result = null;
+    try (final var output = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      for (String line = output.readLine(); line != null; line = output.readLine()) {
+        if (line.startsWith(RESULT_PREFIX)) {
+          result = line.substring(RESULT_PREFIX.length());
+        }
+      }
+    }
+    if (process.waitFor() != 0 || result == null) {
+      throw new IllegalStateException("Benchmark run failed for " + corpus + " with " + threads + " threads");
+    }
+    System.out.println(result);
+    return result;
+  }
+
+  /** The peak resident set size in kilobytes, or -1 where /proc is unavailable. */
+  private static long peakResidentKilobytes() {
+    try (final Stream<String> lines = Files.lines(Path.of("/proc/self/status"))) {
+      return lines.filter(line -> line.startsWith("VmHWM:"))
+        .map(line -> line.replaceAll("[^0-9]", ""))
+        .mapToLong(Long::parseLong)
+        .findFirst()
+        .orElse(-1);
+    } catch (IOException | RuntimeException e) {
+      return -1;
+    }
+  }
+
+  /** The example classes, ready to be passed to the checker. */
+  static String[] exampleArgs() throws IOException {
+    final Path directory = Path.of("target/classes", EXAMPLES.replace('.', '/'));
+    try (final Stream<Path> files = Files.list(directory)) {
+      return files.map(file -> file.getFileName().toString())
+        .filter(name -> name.endsWith(".class") && !name.contains("$"))
+        .map(name -> EXAMPLES + "." + name.substring(0, name.length() - ".class".length()))
+        .sorted()
+        .toArray(String[]::new);
+    }
+  }
+
+  private static List<Integer> defaultThreadCounts() {
+    final int processors = Runtime.getRuntime().availableProcessors();
+    final List<Integer> counts = new ArrayList<>();
+    for (int count = 1; count < processors; count *= 2) {
+      counts.add(count);
+    }
+    counts.add(processors);
+    return counts;
+  }
+
+  private static List<Integer> parseList(String values) {
+    return Arrays.stream(values.split(","))
+      .map(String::trim)
+      .map(Integer::valueOf)
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Synthetic corpora of kitten-heavy code. Each method mixes straight-line
+   * use, branches and loops over a few kittens so that bodies look like the
+   * examples, only many more of them.
+   */
+  static final class SyntheticCorpus {
+    static final String PACKAGE = "synthetic";
+
+    static Path write(Path work, int classes, int methodsPerClass) throws IOException {
+      final Path sources = work.resolve("src-" + classes);
+      final Path binaries = work.resolve("bin-" + classes);
+      Files.createDirectories(sources.resolve(PACKAGE));
+      Files.createDirectories(binaries);
+
+      final List<String> files = new ArrayList<>();
+      for (int i = 0; i < classes; ++i) {
+        final Path file = sources.resolve(PACKAGE).resolve("Synthetic" + i + ".java");
+        Files.writeString(file, classSource(i, methodsPerClass));
+        files.add(file.toString());
+      }
+
+      final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      if (compiler == null) {
+        throw new IllegalStateException("Generating the synthetic corpus needs a JDK");
+      }
+      final List<String> arguments = new ArrayList<>(List.of(
+        "-g", "-nowarn", "-classpath", "target/classes", "-d", binaries.toString()));
+      arguments.addAll(files);
+      if (compiler.run(null, null, null, arguments.toArray(String[]::new)) != 0) {
+        throw new IllegalStateException("Could not compile the synthetic corpus");
+      }
+
+      final Path jar = work.resolve("synthetic-" + classes + ".jar");
+      try (final var out = new JarOutputStream(Files.newOutputStream(jar));
+           final Stream<Path> entries = Files.walk(binaries)) {
+        for (Path entry : (Iterable<Path>) entries.filter(Files::isRegularFile)::iterator) {
+          out.putNextEntry(new ZipEntry(binaries.relativize(entry).toString().replace('\\', '/')));
+          Files.copy(entry, out);
+          out.closeEntry();
+        }
+      }
+      return jar;
+    }
+
+    private static String classSource(int index, int methods) {
+      final var source = new StringBuilder();
+      source.append("package ").append(PACKAGE).append(";\n\n")
+            .append("import ca.sfu.cmpt745.ex06.kittens.Kitten;\n\n")
+            .append("public class Synthetic").append(index).append(" {\n")
+            .append("  Kitten held = new Kitten();\n\n");
+      for (int method = 0; method < methods; ++method) {
+        source.append("  public void test").append(method).append("(boolean c, int count) {\n")
+              .append("    Kitten first = new Kitten();\n")
+              .append("    first.pet();\n")
+              .append("    if (c) {\n")
+              .append("      first.scare();\n")
+              .append("    } else {\n")
+              .append("      first.feed();\n")
+              .append("    }\n")
+              .append("    Kitten second = c ? first : new Kitten();\n")
+              .append("    for (int i = 0; i < count; ++i) {\n")
+              .append("      second.scare();\n")
+              .append("      second.tease();\n")
+              .append("      this.held.feed();\n")
+              .append("    }\n");
+        // Every seventh method misuses a kitten so reporting is exercised too.
+        if ((index + method) % 7 == 0) {
+          source.append("    first.scare();\n")
+                .append("    first.pet();\n");
+        }
+        source.append("    this.held.scare();\n")
+              .append("    second.ignore();\n")
+              .append("  }\n\n");
+      }
+      return source.append("}\n").toString();
+    }
+  }
+}
@@ -3,12 +3,9 @@ package ca.sfu.cmpt745.ex06.checker;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 
 public interface KittenErrorReporter {
@@ -16,15 +13,55 @@ public interface KittenErrorReporter {
                           int lineNumber,
                           String targetState,
                           String sourceState);
+
+  /**
+   * Reports an error together with the class and method it occurred in.
+   * Reporters that do not care about the location may ignore them.
+   */
+  public default void reportError(String className,
+                                  String methodName,
+                                  String variableName,
+                                  int lineNumber,
+                                  String targetState,
+                                  String sourceState) {
+    reportError(variableName, lineNumber, targetState, sourceState);
+  }
+
+  /**
+   * Reports a call that will be checked at runtime because it is only wrong
+   * on some paths. Only used in hybrid mode.
+   */
+  public default void reportMonitor(String className,
+                                    String methodName,
+                                    String variableName,
+                                    int lineNumber) {
+  }
+
+  /**
+   * Reports a method that was not analyzed because it is unreachable from
+   * the configured entry points or never touches a tracked type.
+   */
+  public default void reportSkipped(String className,
+                                    String methodName,
+                                    String reason) {
+  }
 }
 
 
 class ErrorInfo {
+  public String className;
+  public String method;
   public String variable;
   public int line;
   public String target;
   public String source;
   public ErrorInfo(String variable, int line, String target, String source) {
+    this("", "", variable, line, target, source);
+  }
+  public ErrorInfo(String className, String method,
+                   String variable, int line, String target, String source) {
+    this.className = className;
+    this.method = method;
     this.variable = variable;
     this.line = line;
     this.target = target;
@@ -38,35 +75,113 @@ class JsonKittenReporter implements KittenErrorReporter {
                           int lineNumber,
                           String targetState,
                           String sourceState) {
+    reportError("", "", variableName, lineNumber, targetState, sourceState);
+  }
+
+  // Soot may run body packs on several threads at once.
+  public final synchronized void reportError(String className,
+                          String methodName,
+                          String variableName,
+                          int lineNumber,
+                          String targetState,
+                          String sourceState) {
     targetState = targetState.toLowerCase();
     sourceState = sourceState.toLowerCase();
 
     System.out.println("Error on " + variableName + " at " + lineNumber + "\n"
                        + sourceState + " -> " + targetState + "\n");
-    List<ErrorInfo> lineInfo =
-      errors.computeIfAbsent(lineNumber, key -> new ArrayList<ErrorInfo>());
-    lineInfo.add(new ErrorInfo(variableName, lineNumber, targetState, sourceState));
+    errors.add(className, methodName, variableName, lineNumber, targetState, sourceState);
   }
 
-  public final void dumpErrors(final PrintStream out) {
-    String errorString = errors.entrySet().stream()
-      .filter(entry -> !entry.getValue().isEmpty())
-      .map(entry -> {
-        int line = entry.getKey();
-        List<ErrorInfo> reports = entry.getValue();
-        return "  {\"line\":" + line + ", \"bugs\":["
-          + reports.stream()
-              .map(JsonKittenReporter::reportToJSON)
-              .collect(Collectors.joining(", "))
-          + "]}";
-      })
-      .collect(Collectors.joining(",\n"));
+  public final synchronized void reportMonitor(String className,
+                          String methodName,
+                          String variableName,
+                          int lineNumber) {
+    monitors.add(new ErrorInfo(className, methodName, variableName, lineNumber, "", ""));
+  }
+
+  public final synchronized void reportSkipped(String className,
+                          String methodName,
+                          String reason) {
+    skipped.add(new ErrorInfo(className, methodName, "", 0, "", reason));
+  }
+
+  public final synchronized void dumpErrors(final PrintStream out) {
+    // Rows come back grouped by class, method and line, so each run of equal
+    // locations becomes one entry.
+    final List<String> entries = new ArrayList<>();
+    final List<ErrorInfo> reports = new ArrayList<>();
+    for (final var cursor = errors.all(); cursor.next();) {
+      final ErrorInfo report = cursor.toErrorInfo();
+      if (!reports.isEmpty() && !sameLocation(reports.get(0), report)) {
+        entries.add(entryToJSON(reports));
+        reports.clear();
+      }
+      reports.add(report);
+    }
+    if (!reports.isEmpty()) {
+      entries.add(entryToJSON(reports));
+    }
+
+    // Monitored calls only exist in hybrid mode, so other reports keep their shape.
+    final String monitorString = monitors.isEmpty() ? "" : ",\n  \"monitors\": [\n"
+      + monitors.stream()
+          .sorted(Comparator.comparing((ErrorInfo monitor) -> monitor.className)
+                            .thenComparing(monitor -> monitor.method)
+                            .thenComparingInt(monitor -> monitor.line)
+                            .thenComparing(monitor -> monitor.variable))
+          .map(monitor -> "  {\"class\":\"" + monitor.className + "\", "
+                          + "\"method\":\"" + monitor.method + "\", "
+                          + "\"line\":" + monitor.line + ", "
+                          + "\"variable\":\"" + monitor.variable + "\"}")
+          .collect(Collectors.joining(",\n"))
+      + "\n]";
+    // Skipped methods only exist when entry points are configured.
+    final String skippedString = skipped.isEmpty() ? "" : ",\n  \"skipped\": [\n"
+      + skipped.stream()
+          .sorted(Comparator.comparing((ErrorInfo method) -> method.className)
+                            .thenComparing(method -> method.method))
+          .map(method -> "  {\"class\":\"" + method.className + "\", "
+                         + "\"method\":\"" + method.method + "\", "
+                         + "\"reason\":\"" + method.source + "\"}")
+          .collect(Collectors.joining(",\n"))
+      + "\n]";
+    out.println("{ \"errors\": [\n" + String.join(",\n", entries) + "\n]"
+                + monitorString + skippedString + " }");
+  }
+
+  public final synchronized List<ErrorInfo> getMonitors() {
+    return new ArrayList<>(monitors);
+  }
+
+  /** Skipped methods, with the reason in `source`. */
+  public final synchronized List<ErrorInfo> getSkipped() {
+    return new ArrayList<>(skipped);
+  }
+
+  /**
+   * A copy of the errors reported so far. Later reports do not change it,
+   * so it can be queried while other threads are still reporting.
+   */
+  public final synchronized KittenErrorStore errorStore() {
+    return errors.copy();
+  }
 
-    out.println("{ \"errors\": [\n" + errorString + "\n] }");
+  private static boolean sameLocation(ErrorInfo first, ErrorInfo second) {
+    return first.line == second.line
+        && first.className.equals(second.className)
+        && first.method.equals(second.method);
   }
 
-  public final Map<Integer,ArrayList<ErrorInfo>> getErrors() {
-    return Collections.unmodifiableMap(errors);
+  private static String entryToJSON(List<ErrorInfo> reports) {
+    final ErrorInfo first = reports.get(0);
+    return "  {\"class\":\"" + first.className + "\", "
+      + "\"method\":\"" + first.method + "\", "
+      + "\"line\":" + first.line + ", \"bugs\":["
+      + reports.stream()
+          .map(JsonKittenReporter::reportToJSON)
+          .collect(Collectors.joining(", "))
+      + "]}";
   }
 
   private static String reportToJSON(ErrorInfo report) {
@@ -76,6 +191,8 @@ class JsonKittenReporter implements KittenErrorReporter {
          + " } ";
   }
 
-  private HashMap<Integer,ArrayList<ErrorInfo>> errors = new HashMap<>();
+  private final KittenErrorStore errors = new KittenErrorStore();
+  private final List<ErrorInfo> monitors = new ArrayList<>();
+  private final List<ErrorInfo> skipped = new ArrayList<>();
 }
 
@@ -0,0 +1,364 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+
+/**
+ * An in-memory store of kitten errors that can be queried by class, method,
+ * line and variable.
+ *
+ * Errors are kept as parallel int columns with every string interned into a
+ * dictionary, so adding an error allocates nothing beyond the occasional
+ * column growth. Queries are answered from two sorted row orders, one by
+ * (class, line) and one by (class, method, line), that are rebuilt lazily
+ * after errors are added. Results are read through a {@link Cursor} rather
+ * than materialized.
+ *
+ * A store is not safe for concurrent use. {@link JsonKittenReporter} adds
+ * to its own store under a lock and hands out copies.
+ */
+public final class KittenErrorStore {
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int[] NO_ROWS = new int[0];
+
+  private final List<String> dictionary = new ArrayList<>();
+  private final Map<String, Integer> ids = new HashMap<>();
+
+  private int size = 0;
+  private int[] classes   = new int[INITIAL_CAPACITY];
+  private int[] methods   = new int[INITIAL_CAPACITY];
+  private int[] lines     = new int[INITIAL_CAPACITY];
+  private int[] variables = new int[INITIAL_CAPACITY];
+  private int[] targets   = new int[INITIAL_CAPACITY];
+  private int[] sources   = new int[INITIAL_CAPACITY];
+
+  // Row numbers sorted by (class, line, row) and by (class, method, line, row)
+  // on interned ids, and by the names themselves for all(). Null when errors
+  // were added since they were last built.
+  private int[] byClassLine = null;
+  private int[] byClassMethod = null;
+  private int[] byName = null;
+
+  public void add(String className,
+                  String methodName,
+                  String variableName,
+                  int lineNumber,
+                  String targetState,
+                  String sourceState) {
+    if (size == lines.length) {
+      final int capacity = size * 2;
+      classes   = Arrays.copyOf(classes, capacity);
+      methods   = Arrays.copyOf(methods, capacity);
+      lines     = Arrays.copyOf(lines, capacity);
+      variables = Arrays.copyOf(variables, capacity);
+      targets   = Arrays.copyOf(targets, capacity);
+      sources   = Arrays.copyOf(sources, capacity);
+    }
+    classes[size]   = intern(className);
+    methods[size]   = intern(methodName);
+    lines[size]     = lineNumber;
+    variables[size] = intern(variableName);
+    targets[size]   = intern(targetState);
+    sources[size]   = intern(sourceState);
+    ++size;
+    byClassLine = null;
+    byClassMethod = null;
+    byName = null;
+  }
+
+  /** An independent copy of this store, e.g. to read while this one keeps growing. */
+  KittenErrorStore copy() {
+    final var copy = new KittenErrorStore();
+    copy.dictionary.addAll(dictionary);
+    copy.ids.putAll(ids);
+    copy.size = size;
+    final int capacity = Math.max(size, INITIAL_CAPACITY);
+    copy.classes   = Arrays.copyOf(classes, capacity);
+    copy.methods   = Arrays.copyOf(methods, capacity);
+    copy.lines     = Arrays.copyOf(lines, capacity);
+    copy.variables = Arrays.copyOf(variables, capacity);
+    copy.targets   = Arrays.copyOf(targets, capacity);
+    copy.sources   = Arrays.copyOf(sources, capacity);
+    return copy;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * All errors, ordered by class name, method name and line, and then by
+   * variable, target and source, so the order does not depend on the order
+   * in which errors were reported.
+   */
+  public Cursor all() {
+    return new Cursor(nameOrder(), 0, size, -1);
+  }
+
+  /** The errors in one class, ordered by line. */
+  public Cursor inClass(String className) {
+    return inLines(className, Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  /** The errors in one class whose lines lie in `[fromLine, toLine]`, ordered by line. */
+  public Cursor inLines(String className, int fromLine, int toLine) {
+    final Integer classId = ids.get(className);
+    if (classId == null || fromLine > toLine) {
+      return empty();
+    }
+    final int[] order = classLineOrder();
+    final int begin = lowerBound(order, classId, -1, fromLine);
+    final int end = toLine == Integer.MAX_VALUE
+        ? lowerBound(order, classId + 1, -1, Integer.MIN_VALUE)
+        : lowerBound(order, classId, -1, toLine + 1);
+    return new Cursor(order, begin, end, -1);
+  }
+
+  /** The errors on a single line of a class. */
+  public Cursor onLine(String className, int line) {
+    return inLines(className, line, line);
+  }
+
+  /** The errors in one method of a class, ordered by line. */
+  public Cursor inMethod(String className, String methodName) {
+    return inMethod(className, methodName, -1);
+  }
+
+  /** The errors on one variable of a method, ordered by line. */
+  public Cursor forVariable(String className, String methodName, String variableName) {
+    final Integer variableId = ids.get(variableName);
+    return variableId == null ? empty() : inMethod(className, methodName, variableId);
+  }
+
+  /** The number of distinct lines with errors, counted over every class. */
+  public int lineCount() {
+    final int[] order = classLineOrder();
+    int count = 0;
+    for (int i = 0; i < size; ++i) {
+      if (i == 0 || classes[order[i]] != classes[order[i - 1]] || lines[order[i]] != lines[order[i - 1]]) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  /** The number of distinct lines with errors in a class. */
+  public int lineCount(String className) {
+    int count = 0;
+    int previous = 0;
+    for (final Cursor cursor = inClass(className); cursor.next();) {
+      if (count == 0 || cursor.line() != previous) {
+        ++count;
+        previous = cursor.line();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * A forward-only view over the rows matching a query. Call {@link #next()}
+   * before reading each row; the accessors then describe the current row.
+   */
+  public final class Cursor {
+    private final int[] order;
+    private final int end;
+    private final int variable;
+    private int position;
+    private int row = -1;
+
+    private Cursor(int[] order, int begin, int end, int variable) {
+      this.order = order;
+      this.position = begin - 1;
+      this.end = end;
+      this.variable = variable;
+    }
+
+    public boolean next() {
+      while (++position < end) {
+        row = order[position];
+        if (variable < 0 || variables[row] == variable) {
+          return true;
+        }
+      }
+      row = -1;
+      return false;
+    }
+
+    public String className() { return dictionary.get(classes[current()]); }
+    public String methodName() { return dictionary.get(methods[current()]); }
+    public int line() { return lines[current()]; }
+    public String variable() { return dictionary.get(variables[current()]); }
+    public String target() { return dictionary.get(targets[current()]); }
+    public String source() { return dictionary.get(sources[current()]); }
+
+    ErrorInfo toErrorInfo() {
+      return new ErrorInfo(className(), methodName(), variable(), line(), target(), source());
+    }
+
+    /** Collects the remaining rows. Intended for tests and small result sets. */
+    List<ErrorInfo> toList() {
+      final var result = new ArrayList<ErrorInfo>();
+      while (next()) {
+        result.add(toErrorInfo());
+      }
+      return result;
+    }
+
+    private int current() {
+      if (row < 0) {
+        throw new NoSuchElementException("The cursor is not positioned on an error");
+      }
+      return row;
+    }
+  }
+
+  private Cursor inMethod(String className, String methodName, int variableId) {
+    final Integer classId = ids.get(className);
+    final Integer methodId = ids.get(methodName);
+    if (classId == null || methodId == null) {
+      return empty();
+    }
+    final int[] order = classMethodOrder();
+    final int begin = lowerBound(order, classId, methodId, Integer.MIN_VALUE);
+    final int end = lowerBound(order, classId, methodId + 1, Integer.MIN_VALUE);
+    return new Cursor(order, begin, end, variableId);
+  }
+
+  private Cursor empty() {
+    return new Cursor(NO_ROWS, 0, 0, -1);
+  }
+
+  private int intern(String value) {
+    final Integer existing = ids.get(value);
+    if (existing != null) {
+      return existing;
+    }
+    final int id = dictionary.size();
+    dictionary.add(value);
+    ids.put(value, id);
+    return id;
+  }
+
+  private int[] classLineOrder() {
+    if (byClassLine == null) {
+      byClassLine = sortedRows((a, b) -> {
+        int result = Integer.compare(classes[a], classes[b]);
+        if (result == 0) {
+          result = Integer.compare(lines[a], lines[b]);
+        }
+        return result != 0 ? result : Integer.compare(a, b);
+      });
+    }
+    return byClassLine;
+  }
+
+  private int[] classMethodOrder() {
+    if (byClassMethod == null) {
+      byClassMethod = sortedRows((a, b) -> {
+        int result = Integer.compare(classes[a], classes[b]);
+        if (result == 0) {
+          result = Integer.compare(methods[a], methods[b]);
+        }
+        if (result == 0) {
+          result = Integer.compare(lines[a], lines[b]);
+        }
+        return result != 0 ? result : Integer.compare(a, b);
+      });
+    }
+    return byClassMethod;
+  }
+
+  private int[] nameOrder() {
+    if (byName == null) {
+      byName = sortedRows((a, b) -> {
+        int result = compareNames(classes, a, b);
+        if (result == 0) {
+          result = compareNames(methods, a, b);
+        }
+        if (result == 0) {
+          result = Integer.compare(lines[a], lines[b]);
+        }
+        if (result == 0) {
+          result = compareNames(variables, a, b);
+        }
+        if (result == 0) {
+          result = compareNames(targets, a, b);
+        }
+        return result != 0 ? result : compareNames(sources, a, b);
+      });
+    }
+    return byName;
+  }
+
+  private int compareNames(int[] column, int a, int b) {
+    return column[a] == column[b] ? 0 : dictionary.get(column[a]).compareTo(dictionary.get(column[b]));
+  }
+
+  private interface RowComparator {
+    int compare(int a, int b);
+  }
+
+  /** Sorts row numbers with a stable bottom-up merge sort that avoids boxing. */
+  private int[] sortedRows(RowComparator comparator) {
+    int[] order = new int[size];
+    for (int i = 0; i < size; ++i) {
+      order[i] = i;
+    }
+    int[] scratch = new int[size];
+    for (int width = 1; width < size; width *= 2) {
+      for (int low = 0; low < size; low += 2 * width) {
+        final int middle = Math.min(low + width, size);
+        final int high = Math.min(low + 2 * width, size);
+        int left = low;
+        int right = middle;
+        for (int out = low; out < high; ++out) {
+          if (left < middle && (right >= high || comparator.compare(order[left], order[right]) <= 0)) {
+            scratch[out] = order[left++];
+          } else {
+            scratch[out] = order[right++];
+          }
+        }
+      }
+      final int[] swap = order;
+      order = scratch;
+      scratch = swap;
+    }
+    return order;
+  }
+
+  /**
+   * The first position in `order` whose row is not before the given key. A
+   * negative `method` compares by (class, line); otherwise by
+   * (class, method, line).
+   */
+  private int lowerBound(int[] order, int classId, int method, int line) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      final int row = order[middle];
+      int result = Integer.compare(classes[row], classId);
+      if (result == 0 && method >= 0) {
+        result = Integer.compare(methods[row], method);
+      }
+      if (result == 0) {
+        result = Integer.compare(lines[row], line);
+      }
+      if (result < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
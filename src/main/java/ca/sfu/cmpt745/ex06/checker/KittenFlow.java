@@ -0,0 +1,145 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+
+/**
+ * The dataflow fact for the checker: a product of the protocol state domains,
+ * one {@link TypeState} per tracked access path. `aliases` remembers which
+ * path a local was last loaded from so that calls through the local update
+ * the heap location it came from. `links` groups heap locations that were
+ * strongly stored from the same path and must still hold the same object:
+ * each maps to the path of its group that is not a key, so that calls
+ * through any of them update them all. `origins` remembers the weak path a
+ * local was loaded from: the local tracks its one object strongly, and what
+ * happens to it is joined back into the summary. A path without a state is
+ * in its protocol's initial state.
+ *
+ * An `unreached` flow belongs to a point no path has reached yet, such as
+ * a loop's back edge before the loop body is first visited. It is the
+ * bottom of the lattice, so merging it in changes nothing.
+ */
+final class KittenFlow {
+  final Map<AccessPath, TypeState> states = new HashMap<>();
+  final Map<String, AccessPath> aliases = new HashMap<>();
+  final Map<AccessPath, AccessPath> links = new HashMap<>();
+  final Map<String, AccessPath> origins = new HashMap<>();
+  boolean unreached = false;
+
+  static KittenFlow unreached() {
+    final var flow = new KittenFlow();
+    flow.unreached = true;
+    return flow;
+  }
+
+  /** The path whose state a call on `local` observes and updates. */
+  AccessPath resolve(String local) {
+    final var path = aliases.get(local);
+    return path != null ? path : AccessPath.of(local);
+  }
+
+  /** The state of `path` as an object following `protocol`. */
+  TypeState stateOf(AccessPath path, TypestateProtocol protocol) {
+    final TypeState state = states.get(path);
+    return state != null && state.protocol == protocol ? state : TypeState.initial(protocol);
+  }
+
+  /** Gives `to` the state of `from`, or the initial state when `from` has none. */
+  void copyState(AccessPath from, AccessPath to) {
+    final TypeState state = states.get(from);
+    if (state != null) {
+      states.put(to, state);
+    } else {
+      states.remove(to);
+    }
+  }
+
+  /**
+   * Every other path that must hold the object at `path`, found by following
+   * links in either direction. Paths below a linked path are linked too.
+   */
+  List<AccessPath> mustAliases(AccessPath path, int limit) {
+    final List<AccessPath> found = new ArrayList<>();
+    if (links.isEmpty()) {
+      return found;
+    }
+    found.add(path);
+    for (int i = 0; i < found.size(); ++i) {
+      final AccessPath current = found.get(i);
+      links.forEach((target, source) -> {
+        for (AccessPath other : new AccessPath[] {
+               target.isPrefixOf(current) ? current.rebase(target, source, limit) : null,
+               source.isPrefixOf(current) ? current.rebase(source, target, limit) : null }) {
+          if (other != null && !found.contains(other)) {
+            found.add(other);
+          }
+        }
+      });
+    }
+    found.remove(0);
+    return found;
+  }
+
+  /** Makes `target` hold the same object as `source` from now on. */
+  void link(AccessPath target, AccessPath source) {
+    links.put(target, links.getOrDefault(source, source));
+  }
+
+  /** Lets `to` take the place of `from` in its group, once `from` no longer holds the object. */
+  void relink(AccessPath from, AccessPath to) {
+    final AccessPath representative = links.remove(from);
+    if (representative != null) {
+      links.put(to, representative);
+    } else {
+      links.replaceAll((member, path) -> path.equals(from) ? to : path);
+    }
+  }
+
+  void removeIf(Predicate<AccessPath> filter) {
+    states.keySet().removeIf(filter);
+    links.keySet().removeIf(filter);
+    // A group whose representative is forgotten is held together by its first remaining member.
+    final Map<AccessPath, AccessPath> replacements = new HashMap<>();
+    for (var link : links.entrySet()) {
+      if (filter.test(link.getValue())) {
+        link.setValue(replacements.computeIfAbsent(link.getValue(), forgotten -> link.getKey()));
+      }
+    }
+    links.entrySet().removeIf(link -> link.getKey().equals(link.getValue()));
+    origins.values().removeIf(filter);
+  }
+
+  void copyFrom(KittenFlow source) {
+    unreached = source.unreached;
+    states.clear();
+    states.putAll(source.states);
+    aliases.clear();
+    aliases.putAll(source.aliases);
+    links.clear();
+    links.putAll(source.links);
+    origins.clear();
+    origins.putAll(source.origins);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof KittenFlow)) {
+      return false;
+    }
+    final var other = (KittenFlow) o;
+    return unreached == other.unreached && states.equals(other.states) && aliases.equals(other.aliases)
+        && links.equals(other.links) && origins.equals(other.origins);
+  }
+
+  @Override
+  public int hashCode() {
+    return ((states.hashCode() * 31 + aliases.hashCode()) * 31 + links.hashCode()) * 31 + origins.hashCode();
+  }
+}
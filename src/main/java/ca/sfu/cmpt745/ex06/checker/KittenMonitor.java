@@ -0,0 +1,70 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The runtime half of hybrid checking. The checker inserts calls to
+ * {@link #check} only at call sites whose statically possible states are
+ * partly legal and partly illegal. Each such object carries its state in an
+ * int local of the instrumented method, so a check is a table lookup with no
+ * allocation once its protocol has been loaded.
+ */
+public final class KittenMonitor {
+  private static final Map<String, TypestateProtocol> protocols = new ConcurrentHashMap<>();
+  private static final AtomicLong checks = new AtomicLong();
+  private static final AtomicLong violations = new AtomicLong();
+  // Benchmarks set `kitten.monitor.quiet` so that logging does not dominate the timings.
+  private static final boolean quiet = Boolean.getBoolean("kitten.monitor.quiet");
+
+  private KittenMonitor() { }
+
+  /**
+   * Checks a call of `method` on an object in `state` of the protocol class
+   * `protocolClass` at `site` and returns the object's next state. A
+   * violation is logged and leaves the state unchanged, matching the static
+   * analysis.
+   */
+  public static int check(String protocolClass, int state, int method, String site) {
+    checks.incrementAndGet();
+    final TypestateProtocol protocol = protocols.computeIfAbsent(protocolClass, KittenMonitor::load);
+    final int next = protocol.transition(state, method);
+    if (next != TypestateProtocol.ILLEGAL) {
+      return next;
+    }
+    violations.incrementAndGet();
+    if (quiet) {
+      return state;
+    }
+    System.err.println("Typestate protocol violation at " + site + "\n"
+                       + protocol.stateName(state) + " -> "
+                       + protocol.targetState(protocol.methodName(method)) + "\n");
+    return state;
+  }
+
+  private static TypestateProtocol load(String protocolClass) {
+    try {
+      return Class.forName(protocolClass)
+        .asSubclass(TypestateProtocol.class)
+        .getConstructor()
+        .newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Could not load protocol " + protocolClass, e);
+    }
+  }
+
+  public static long checks() {
+    return checks.get();
+  }
+
+  public static long violations() {
+    return violations.get();
+  }
+
+  public static void resetCounts() {
+    checks.set(0);
+    violations.set(0);
+  }
+}
@@ -0,0 +1,153 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import soot.Body;
+import soot.IntType;
+import soot.Local;
+import soot.Scene;
+import soot.SootMethodRef;
+import soot.Unit;
+import soot.UnitPatchingChain;
+import soot.jimple.IdentityStmt;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+import soot.jimple.StringConstant;
+
+
+/**
+ * Rewrites a body so that the calls the analysis could not decide are
+ * checked by {@link KittenMonitor} at runtime.
+ *
+ * Every tracked local with a monitored call gets an int "shadow" local that
+ * holds its state code in that object's protocol. The shadow is only kept up
+ * to date where the static state of that object changes: after proven-safe
+ * calls on it (a constant store), where it is overwritten or takes over
+ * another object's state, and at the monitored calls themselves. Calls on
+ * objects without monitored calls are left alone.
+ */
+final class KittenMonitorInstrumenter {
+  static final String MONITOR_CLASS = "ca.sfu.cmpt745.ex06.checker.KittenMonitor";
+  private static final String CHECK_SIGNATURE = "int check(java.lang.String,int,int,java.lang.String)";
+
+  private final Body body;
+  private final ProtocolRegistry protocols;
+  private final Function<Unit, KittenFlow> before;
+  private final Function<Unit, KittenFlow> after;
+  private final Map<AccessPath, Local> shadows = new LinkedHashMap<>();
+  private final Map<AccessPath, TypestateProtocol> shadowProtocols = new HashMap<>();
+
+  KittenMonitorInstrumenter(Body body,
+                            ProtocolRegistry protocols,
+                            Function<Unit, KittenFlow> before,
+                            Function<Unit, KittenFlow> after) {
+    this.body = body;
+    this.protocols = protocols;
+    this.before = before;
+    this.after = after;
+  }
+
+  void instrument(List<Unit> monitored) {
+    for (Unit unit : monitored) {
+      shadowFor(pathAt(unit), protocols.protocolAt(unit));
+    }
+    final Set<Unit> checked = new HashSet<>(monitored);
+    final UnitPatchingChain units = body.getUnits();
+    final SootMethodRef check =
+      Scene.v().getSootClass(MONITOR_CLASS).getMethod(CHECK_SIGNATURE).makeRef();
+    final String className = body.getMethod().getDeclaringClass().getName();
+
+    // Decide on all insertions against the original units before changing any.
+    final List<Unit> original = new ArrayList<>(units);
+    for (Unit unit : original) {
+      final TypestateProtocol protocol = protocols.protocolAt(unit);
+      if (protocol != null) {
+        final AccessPath path = pathAt(unit);
+        final Local shadow = shadows.get(path);
+        if (shadow == null || shadowProtocols.get(path) != protocol) {
+          // The call may still change other paths that hold the same object.
+          resync(unit, units);
+          continue;
+        }
+        final String methodName = ProtocolRegistry.instanceInvokeOf(unit).getMethod().getName();
+        final int method = protocol.methodCode(methodName);
+        if (checked.contains(unit)) {
+          final String site = className + ":" + unit.getJavaSourceStartLineNumber();
+          units.insertBefore(
+            Jimple.v().newAssignStmt(shadow,
+              Jimple.v().newStaticInvokeExpr(check, StringConstant.v(protocol.getClass().getName()),
+                                             shadow, IntConstant.v(method), StringConstant.v(site))),
+            unit);
+        } else {
+          final int mask = before.apply(unit).stateOf(path, protocol).possible;
+          if (protocol.legalStates(mask, method) == mask) {
+            final int target = protocol.stateCode(protocol.targetState(methodName));
+            units.insertAfter(Jimple.v().newAssignStmt(shadow, IntConstant.v(target)), unit);
+          }
+        }
+      } else if (!(unit instanceof IdentityStmt)) {
+        resync(unit, units);
+      }
+    }
+
+    final Unit start = ((JimpleBody) body).getFirstNonIdentityStmt();
+    shadows.forEach((path, shadow) -> {
+      final int initial = shadowProtocols.get(path).initialState();
+      units.insertBeforeNoRedirect(Jimple.v().newAssignStmt(shadow, IntConstant.v(initial)), start);
+    });
+  }
+
+  /**
+   * Brings shadows back in line after a statement that changed the static
+   * state of their object without calling it.
+   */
+  private void resync(Unit unit, UnitPatchingChain units) {
+    final KittenFlow in = before.apply(unit);
+    final KittenFlow out = after.apply(unit);
+    shadows.forEach((path, shadow) -> {
+      final TypestateProtocol protocol = shadowProtocols.get(path);
+      final AccessPath source = in.aliases.get(path.root);
+      if (source != null && shadows.containsKey(source)
+          && !out.aliases.containsKey(path.root) && !defines(unit, path.root)) {
+        // The local stops aliasing a monitored object and takes over its state.
+        units.insertBefore(Jimple.v().newAssignStmt(shadow, shadows.get(source)), unit);
+      } else {
+        final int mask = out.stateOf(path, protocol).possible;
+        if (in.stateOf(path, protocol).possible != mask) {
+          units.insertAfter(Jimple.v().newAssignStmt(shadow, IntConstant.v(seed(protocol, mask))), unit);
+        }
+      }
+    });
+  }
+
+  private static boolean defines(Unit unit, String local) {
+    return unit.getDefBoxes().stream()
+      .anyMatch(box -> box.getValue() instanceof Local && ((Local) box.getValue()).getName().equals(local));
+  }
+
+  /** The state code a shadow must hold for an object in one of `mask`. */
+  private static int seed(TypestateProtocol protocol, int mask) {
+    return Integer.bitCount(mask) == 1 ? Integer.numberOfTrailingZeros(mask) : protocol.unknownState();
+  }
+
+  private AccessPath pathAt(Unit unit) {
+    return before.apply(unit).resolve(ProtocolRegistry.instanceInvokeOf(unit).getBase().toString());
+  }
+
+  private Local shadowFor(AccessPath path, TypestateProtocol protocol) {
+    shadowProtocols.putIfAbsent(path, protocol);
+    return shadows.computeIfAbsent(path, key -> {
+      final Local shadow = Jimple.v().newLocal("$kittenState" + shadows.size(), IntType.v());
+      body.getLocals().add(shadow);
+      return shadow;
+    });
+  }
+}
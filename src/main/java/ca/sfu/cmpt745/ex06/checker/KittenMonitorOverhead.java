@@ -0,0 +1,65 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+
+
+/**
+ * Measures what hybrid monitoring costs on the examples. Each example's
+ * `test` method is run from the original classes and from the classes that
+ * hybrid mode rewrote, and the difference is divided by the number of
+ * monitor checks.
+ *
+ * Usage: KittenMonitorOverhead <rewritten class dir> <class name>...
+ * where each class has a `public void test(boolean)` method.
+ */
+public class KittenMonitorOverhead {
+  private static final int WARMUP_ROUNDS = 200_000;
+  private static final int MEASURED_ROUNDS = 2_000_000;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage: KittenMonitorOverhead <rewritten class dir> <class name>...");
+      System.exit(1);
+    }
+    System.setProperty("kitten.monitor.quiet", "true");
+    final URL classes = Path.of("target/classes").toUri().toURL();
+    final URL rewritten = Path.of(args[0]).toUri().toURL();
+    final ClassLoader parent = ClassLoader.getPlatformClassLoader();
+
+    try (final var originalLoader = new URLClassLoader(new URL[] { classes }, parent);
+         final var hybridLoader = new URLClassLoader(new URL[] { rewritten, classes }, parent)) {
+      final Method checks = hybridLoader.loadClass(KittenMonitorInstrumenter.MONITOR_CLASS)
+        .getMethod("checks");
+      System.out.println("class, original ns/call, hybrid ns/call, checks/call, ns/check");
+      for (int i = 1; i < args.length; ++i) {
+        final double original = timePerCall(originalLoader.loadClass(args[i]));
+        final long checksBefore = (Long) checks.invoke(null);
+        final double hybrid = timePerCall(hybridLoader.loadClass(args[i]));
+        final double checksPerCall = ((Long) checks.invoke(null) - checksBefore)
+          / (double) (WARMUP_ROUNDS + MEASURED_ROUNDS);
+        final double perCheck = checksPerCall > 0 ? (hybrid - original) / checksPerCall : 0;
+        System.out.printf("%s, %.1f, %.1f, %.2f, %.1f%n",
+                          args[i], original, hybrid, checksPerCall, perCheck);
+      }
+    }
+  }
+
+  /** Nanoseconds per call of `test`, alternating `true` and `false` for boolean arguments. */
+  private static double timePerCall(Class<?> example) throws Exception {
+    final Object instance = example.getConstructor().newInstance();
+    final Method test = example.getMethod("test", boolean.class);
+    final Object[] argsTrue = { true };
+    final Object[] argsFalse = { false };
+    for (int round = 0; round < WARMUP_ROUNDS; ++round) {
+      test.invoke(instance, (round & 1) == 0 ? argsTrue : argsFalse);
+    }
+    final long start = System.nanoTime();
+    for (int round = 0; round < MEASURED_ROUNDS; ++round) {
+      test.invoke(instance, (round & 1) == 0 ? argsTrue : argsFalse);
+    }
+    return (System.nanoTime() - start) / (double) MEASURED_ROUNDS;
+  }
+}
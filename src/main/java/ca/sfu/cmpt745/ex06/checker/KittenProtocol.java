@@ -0,0 +1,36 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+
+/** The typestate protocol of {@link ca.sfu.cmpt745.ex06.kittens.Kitten}. */
+public final class KittenProtocol extends TypestateProtocol {
+  public KittenProtocol() {
+    super("ca.sfu.cmpt745.ex06.kittens.Kitten",
+          new String[] { "sleeping", "eating", "playing", "plotting", "running", "unknown" },
+          new String[] { "pet", "feed", "tease", "ignore", "scare" },
+          "sleeping",
+          "unknown");
+  }
+
+  @Override
+  public boolean isValidTransition(String currentState, String methodName) {
+    switch (methodName) {
+      case "pet": return !currentState.equals("running") && !currentState.equals("playing");
+      case "tease": return !currentState.equals("sleeping") && !currentState.equals("eating");
+      case "ignore": return !currentState.equals("sleeping") && !currentState.equals("eating") && !currentState.equals("playing");
+      case "scare": return true;
+      default: return true;
+    }
+  }
+
+  @Override
+  public String targetState(String methodName) {
+    switch (methodName) {
+      case "pet": return "sleeping";
+      case "feed": return "eating";
+      case "tease": return "playing";
+      case "ignore": return "plotting";
+      case "scare": return "running";
+      default: return "unknown";
+    }
+  }
+}
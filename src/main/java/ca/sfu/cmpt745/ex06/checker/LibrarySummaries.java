@@ -0,0 +1,273 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import soot.SootClass;
+import soot.SootMethodRef;
+
+
+/**
+ * Precompiled {@link MethodSummary} bundles, one per library version.
+ *
+ * A bundle is memory-mapped and searched in place, so loading one costs
+ * the same however many methods it summarizes, and only the summaries a
+ * program actually calls are ever decoded. All numbers are big-endian:
+ *
+ *     int    magic "KSUM", int format version
+ *     string library name, string library version
+ *     int    method count N
+ *     N x    (int signature offset, int effects offset), sorted by signature bytes
+ *     data   signatures as strings; effects as byte count, then per effect
+ *            byte kind, byte argument, byte method count, that many strings
+ *
+ * where a string is an unsigned short length followed by UTF-8 bytes and
+ * offsets count from the start of the file.
+ */
+final class LibrarySummaries {
+  static final int MAGIC = 0x4B53554D;
+  static final int FORMAT_VERSION = 1;
+
+  private static final MethodSummary NONE = new MethodSummary("", List.of());
+
+  private final List<Bundle> bundles;
+  // Decoded summaries by call signature, including misses as NONE.
+  private final Map<String, MethodSummary> cache = new ConcurrentHashMap<>();
+  // The summaries calls inherit from their supertypes, including misses as NONE.
+  private final Map<SootMethodRef, MethodSummary> inherited = new ConcurrentHashMap<>();
+
+  private LibrarySummaries(List<Bundle> bundles) {
+    this.bundles = bundles;
+  }
+
+  static LibrarySummaries load(List<Path> files) {
+    final List<Bundle> bundles = new ArrayList<>();
+    for (Path file : files) {
+      bundles.add(new Bundle(file));
+    }
+    return new LibrarySummaries(bundles);
+  }
+
+  /** The `name:version` of each loaded bundle. */
+  List<String> libraries() {
+    final List<String> libraries = new ArrayList<>();
+    bundles.forEach(bundle -> libraries.add(bundle.library + ":" + bundle.version));
+    return libraries;
+  }
+
+  /**
+   * The summary of the method a call may reach, or null. A method without
+   * its own summary inherits the one of the nearest supertype declaring it,
+   * so `ArrayList.add` is covered by a summary of `List.add`.
+   */
+  MethodSummary summaryOf(SootMethodRef ref) {
+    MethodSummary summary = inherited.get(ref);
+    if (summary == null) {
+      summary = inherited.computeIfAbsent(ref, this::inheritedSummary);
+    }
+    return summary != NONE ? summary : null;
+  }
+
+  private MethodSummary inheritedSummary(SootMethodRef ref) {
+    final String subSignature = ref.getSubSignature().getString();
+    final Deque<SootClass> pending = new ArrayDeque<>(List.of(ref.getDeclaringClass()));
+    final Set<SootClass> seen = new HashSet<>();
+    while (!pending.isEmpty()) {
+      final SootClass sootClass = pending.removeFirst();
+      if (!seen.add(sootClass)) {
+        continue;
+      }
+      final MethodSummary summary = find("<" + sootClass.getName() + ": " + subSignature + ">");
+      if (summary != null) {
+        return summary;
+      }
+      if (sootClass.hasSuperclass()) {
+        pending.addLast(sootClass.getSuperclass());
+      }
+      pending.addAll(sootClass.getInterfaces());
+    }
+    return NONE;
+  }
+
+  /** The summary for exactly `signature`, or null. */
+  MethodSummary find(String signature) {
+    final MethodSummary summary = cache.computeIfAbsent(signature, key -> {
+      final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+      for (Bundle bundle : bundles) {
+        final MethodSummary found = bundle.find(key, bytes);
+        if (found != null) {
+          return found;
+        }
+      }
+      return NONE;
+    });
+    return summary != NONE ? summary : null;
+  }
+
+  /** Writes `summaries` as a bundle for version `version` of `library`. */
+  static void write(Path file, String library, String version, Collection<MethodSummary> summaries)
+      throws IOException {
+    final List<MethodSummary> sorted = new ArrayList<>(summaries);
+    sorted.sort((first, second) -> Arrays.compareUnsigned(
+      first.signature.getBytes(StandardCharsets.UTF_8), second.signature.getBytes(StandardCharsets.UTF_8)));
+    for (int i = 1; i < sorted.size(); ++i) {
+      if (sorted.get(i).signature.equals(sorted.get(i - 1).signature)) {
+        throw new IllegalArgumentException("Two summaries for " + sorted.get(i).signature);
+      }
+    }
+
+    final var data = new ByteArrayOutputStream();
+    final var dataOut = new DataOutputStream(data);
+    final int headerSize = 4 + 4 + stringSize(library) + stringSize(version) + 4 + 8 * sorted.size();
+    final int[] offsets = new int[2 * sorted.size()];
+    for (int i = 0; i < sorted.size(); ++i) {
+      final MethodSummary summary = sorted.get(i);
+      offsets[2 * i] = headerSize + dataOut.size();
+      writeString(dataOut, summary.signature);
+      offsets[2 * i + 1] = headerSize + dataOut.size();
+      dataOut.writeByte(summary.effects.size());
+      for (MethodSummary.Effect effect : summary.effects) {
+        dataOut.writeByte(effect.kind.ordinal());
+        dataOut.writeByte(effect.argument);
+        dataOut.writeByte(effect.methods.size());
+        for (String method : effect.methods) {
+          writeString(dataOut, method);
+        }
+      }
+    }
+
+    try (final var out = new DataOutputStream(Files.newOutputStream(file))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      writeString(out, library);
+      writeString(out, version);
+      out.writeInt(sorted.size());
+      for (int offset : offsets) {
+        out.writeInt(offset);
+      }
+      data.writeTo(out);
+    }
+  }
+
+  private static int stringSize(String value) {
+    return 2 + value.getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > 0xFFFF) {
+      throw new IllegalArgumentException("String too long for a summary bundle: " + value);
+    }
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  /** One mapped bundle file. Reads use absolute positions, so lookups may run concurrently. */
+  private static final class Bundle {
+    final ByteBuffer buffer;
+    final String library;
+    final String version;
+    final int count;
+    final int index;
+
+    Bundle(Path file) {
+      try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } catch (IOException e) {
+        throw new UncheckedIOException("Could not map summary bundle " + file, e);
+      }
+      if (buffer.limit() < 8 || buffer.getInt(0) != MAGIC) {
+        throw new IllegalArgumentException(file + " is not a summary bundle");
+      }
+      if (buffer.getInt(4) != FORMAT_VERSION) {
+        throw new IllegalArgumentException(file + " has summary format " + buffer.getInt(4)
+                                           + ", not " + FORMAT_VERSION);
+      }
+      library = readString(8);
+      final int versionAt = 8 + 2 + stringLength(8);
+      version = readString(versionAt);
+      final int countAt = versionAt + 2 + stringLength(versionAt);
+      count = buffer.getInt(countAt);
+      index = countAt + 4;
+    }
+
+    MethodSummary find(String signature, byte[] key) {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        final int middle = (low + high) >>> 1;
+        final int order = compare(buffer.getInt(index + 8 * middle), key);
+        if (order < 0) {
+          low = middle + 1;
+        } else if (order > 0) {
+          high = middle - 1;
+        } else {
+          return decode(signature, buffer.getInt(index + 8 * middle + 4));
+        }
+      }
+      return null;
+    }
+
+    /** Compares the string at `offset` with `key` as unsigned bytes, without decoding it. */
+    private int compare(int offset, byte[] key) {
+      final int length = stringLength(offset);
+      final int shared = Math.min(length, key.length);
+      for (int i = 0; i < shared; ++i) {
+        final int order = Integer.compare(buffer.get(offset + 2 + i) & 0xFF, key[i] & 0xFF);
+        if (order != 0) {
+          return order;
+        }
+      }
+      return Integer.compare(length, key.length);
+    }
+
+    private MethodSummary decode(String signature, int offset) {
+      final int effectCount = buffer.get(offset++) & 0xFF;
+      final MethodSummary.Kind[] kinds = MethodSummary.Kind.values();
+      final List<MethodSummary.Effect> effects = new ArrayList<>();
+      for (int i = 0; i < effectCount; ++i) {
+        final MethodSummary.Kind kind = kinds[buffer.get(offset)];
+        final int argument = buffer.get(offset + 1);
+        final int methodCount = buffer.get(offset + 2) & 0xFF;
+        offset += 3;
+        final List<String> methods = new ArrayList<>();
+        for (int j = 0; j < methodCount; ++j) {
+          methods.add(readString(offset));
+          offset += 2 + stringLength(offset);
+        }
+        effects.add(new MethodSummary.Effect(kind, argument, methods));
+      }
+      return new MethodSummary(signature, effects);
+    }
+
+    private int stringLength(int offset) {
+      return buffer.getShort(offset) & 0xFFFF;
+    }
+
+    private String readString(int offset) {
+      final byte[] bytes = new byte[stringLength(offset)];
+      for (int i = 0; i < bytes.length; ++i) {
+        bytes[i] = buffer.get(offset + 2 + i);
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import soot.G;
+import soot.Scene;
+import soot.SootClass;
+import soot.options.Options;
+
+
+/**
+ * Builds a summary bundle for one version of a library, to be passed to the
+ * checker with the `summaries` phase option. Summaries come from hand
+ * written summary files and from inferring the public methods of the
+ * library's own classes. A hand written summary wins over an inferred one.
+ *
+ * Usage: LibrarySummaryTool --library <name> --version <version> --out <bundle>
+ *                           [--spec <summary file>]... [--infer <jar or dir>]...
+ *                           [--soot-classpath <classpath>]
+ */
+public class LibrarySummaryTool {
+  static final String DEFAULT_SOOT_CLASSPATH = "target/classes:VIRTUAL_FS_FOR_JDK";
+
+  public static void main(String[] args) throws IOException {
+    String library = null;
+    String version = null;
+    Path out = null;
+    String sootClasspath = DEFAULT_SOOT_CLASSPATH;
+    final List<Path> specs = new ArrayList<>();
+    final List<String> libraryPaths = new ArrayList<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--library":        library = args[i + 1]; break;
+        case "--version":        version = args[i + 1]; break;
+        case "--out":            out = Path.of(args[i + 1]); break;
+        case "--spec":           specs.add(Path.of(args[i + 1])); break;
+        case "--infer":          libraryPaths.add(args[i + 1]); break;
+        case "--soot-classpath": sootClasspath = args[i + 1]; break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+    if (library == null || version == null || out == null) {
+      System.err.println("Usage: LibrarySummaryTool --library <name> --version <version> --out <bundle>\n"
+                         + "         [--spec <summary file>]... [--infer <jar or dir>]...\n"
+                         + "         [--soot-classpath <classpath>]");
+      System.exit(1);
+    }
+
+    final Map<String, MethodSummary> summaries = new LinkedHashMap<>();
+    for (MethodSummary summary : infer(libraryPaths, sootClasspath, ProtocolRegistry.defaults())) {
+      summaries.put(summary.signature, summary);
+    }
+    for (Path spec : specs) {
+      for (MethodSummary summary : readSpec(spec)) {
+        summaries.put(summary.signature, summary);
+      }
+    }
+    LibrarySummaries.write(out, library, version, summaries.values());
+    System.out.println("Wrote " + summaries.size() + " summaries for " + library + " " + version + " to " + out);
+  }
+
+  /** Parses a summary file, skipping blank lines and `#` comments. */
+  static List<MethodSummary> readSpec(Path spec) throws IOException {
+    final List<MethodSummary> summaries = new ArrayList<>();
+    for (String line : Files.readAllLines(spec)) {
+      line = line.strip();
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        summaries.add(MethodSummary.parse(line));
+      }
+    }
+    return summaries;
+  }
+
+  /** Infers summaries for every class in `libraryPaths`, in a Soot context of its own. */
+  static List<MethodSummary> infer(List<String> libraryPaths, String sootClasspath,
+                                   ProtocolRegistry protocols) {
+    if (libraryPaths.isEmpty()) {
+      return List.of();
+    }
+    return new KittenAnalysisContext().call(() -> {
+      G.reset();
+      Options.v().set_soot_classpath(sootClasspath + ":" + String.join(":", libraryPaths));
+      Options.v().set_process_dir(libraryPaths);
+      Options.v().set_allow_phantom_refs(true);
+      Options.v().set_keep_line_number(true);
+      for (TypestateProtocol protocol : protocols.protocols()) {
+        Scene.v().addBasicClass(protocol.trackedClass(), SootClass.SIGNATURES);
+      }
+      Scene.v().loadNecessaryClasses();
+      return new SummaryInference(protocols).summarize(new ArrayList<>(Scene.v().getApplicationClasses()));
+    });
+  }
+}
@@ -0,0 +1,33 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+
+/** The typestate protocol of {@link ca.sfu.cmpt745.ex06.kittens.LitterBox}. */
+public final class LitterBoxProtocol extends TypestateProtocol {
+  public LitterBoxProtocol() {
+    super("ca.sfu.cmpt745.ex06.kittens.LitterBox",
+          new String[] { "empty", "fresh", "dirty", "unknown" },
+          new String[] { "fill", "use", "empty" },
+          "empty",
+          "unknown");
+  }
+
+  @Override
+  public boolean isValidTransition(String currentState, String methodName) {
+    switch (methodName) {
+      case "fill": return !currentState.equals("fresh") && !currentState.equals("dirty");
+      case "use": return !currentState.equals("empty");
+      case "empty": return true;
+      default: return true;
+    }
+  }
+
+  @Override
+  public String targetState(String methodName) {
+    switch (methodName) {
+      case "fill": return "fresh";
+      case "use": return "dirty";
+      case "empty": return "empty";
+      default: return "unknown";
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * What a library method does to tracked objects, so that calls to it can be
+ * checked without its body. Arguments are numbered from 0, and the receiver
+ * is {@link #RECEIVER}. A library container holds its elements in one
+ * summarized `[]` path below the container, as an array does.
+ *
+ * In a summary file each method takes one line: its Soot signature followed
+ * by effects separated by `;`, for example
+ *
+ *     <java.util.List: boolean add(java.lang.Object)> store 0
+ *     <java.util.Optional: java.lang.Object orElse(java.lang.Object)> load; may_return 0
+ *     <com.example.Care: void calm(ca.sfu.cmpt745.ex06.kittens.Kitten)> call 0 pet
+ *
+ * Kinds are stored in bundles by ordinal, so new ones go at the end.
+ */
+final class MethodSummary {
+  static final int RECEIVER = -1;
+
+  enum Kind {
+    /** Calls the named protocol methods, in order, on the argument. */
+    CALL,
+    /** Stores the argument as an element of the receiver. */
+    STORE,
+    /** Returns an element of the receiver. */
+    LOAD,
+    /** Returns the argument itself. */
+    RETURN,
+    /** Returns a new container whose element is the argument. */
+    WRAP,
+    /**
+     * Does something to the argument that the summary cannot describe. The
+     * argument is left in the unknown state, from which no call is reported
+     * statically, as after any join the analysis cannot resolve.
+     */
+    HAVOC,
+    /** May return the argument instead of what the other effects return. */
+    MAY_RETURN
+  }
+
+  static final class Effect {
+    final Kind kind;
+    final int argument;
+    final List<String> methods;
+
+    Effect(Kind kind, int argument, List<String> methods) {
+      this.kind = kind;
+      this.argument = argument;
+      this.methods = Collections.unmodifiableList(new ArrayList<>(methods));
+    }
+
+    @Override
+    public String toString() {
+      final var text = new StringBuilder(kind.name().toLowerCase());
+      if (kind != Kind.LOAD) {
+        text.append(' ').append(argument == RECEIVER ? "this" : Integer.toString(argument));
+      }
+      methods.forEach(method -> text.append(' ').append(method));
+      return text.toString();
+    }
+  }
+
+  final String signature;
+  final List<Effect> effects;
+
+  MethodSummary(String signature, List<Effect> effects) {
+    this.signature = signature;
+    this.effects = Collections.unmodifiableList(new ArrayList<>(effects));
+  }
+
+  /** Parses one line of a summary file. */
+  static MethodSummary parse(String line) {
+    final int end = line.indexOf('>');
+    if (!line.startsWith("<") || end < 0) {
+      throw new IllegalArgumentException("Expected a method signature in: " + line);
+    }
+    final List<Effect> effects = new ArrayList<>();
+    for (String effect : line.substring(end + 1).split(";")) {
+      final List<String> words = new ArrayList<>(Arrays.asList(effect.trim().split("\\s+")));
+      if (words.get(0).isEmpty()) {
+        continue;
+      }
+      final Kind kind = Kind.valueOf(words.remove(0).toUpperCase());
+      int argument = RECEIVER;
+      if (kind != Kind.LOAD) {
+        if (words.isEmpty()) {
+          throw new IllegalArgumentException("Missing argument for " + effect.trim() + " in: " + line);
+        }
+        final String name = words.remove(0);
+        argument = name.equals("this") ? RECEIVER : Integer.parseInt(name);
+      }
+      if (kind != Kind.CALL && !words.isEmpty()) {
+        throw new IllegalArgumentException("Unexpected " + words + " in: " + line);
+      }
+      effects.add(new Effect(kind, argument, words));
+    }
+    return new MethodSummary(line.substring(0, end + 1), effects);
+  }
+
+  @Override
+  public String toString() {
+    final var text = new StringBuilder(signature);
+    for (int i = 0; i < effects.size(); ++i) {
+      text.append(i == 0 ? " " : "; ").append(effects.get(i));
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,128 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import soot.ArrayType;
+import soot.Body;
+import soot.Local;
+import soot.RefType;
+import soot.Type;
+import soot.Unit;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+
+
+/**
+ * The typestate protocols checked together in one pass, indexed by the class
+ * they track. Every call is dispatched to its protocol with a single lookup,
+ * however many protocols are registered.
+ */
+final class ProtocolRegistry {
+  private final List<TypestateProtocol> protocols;
+  private final Map<String, TypestateProtocol> byClass = new HashMap<>();
+
+  ProtocolRegistry(List<TypestateProtocol> protocols) {
+    this.protocols = Collections.unmodifiableList(new ArrayList<>(protocols));
+    for (TypestateProtocol protocol : protocols) {
+      if (byClass.put(protocol.trackedClass(), protocol) != null) {
+        throw new IllegalArgumentException("Two protocols track " + protocol.trackedClass());
+      }
+    }
+  }
+
+  /** The protocols that ship with the checker. */
+  static ProtocolRegistry defaults() {
+    return new ProtocolRegistry(List.of(new KittenProtocol(), new LitterBoxProtocol()));
+  }
+
+  /**
+   * A registry of the protocol classes named in `classNames`, separated by
+   * colons like a classpath, because Soot splits phase options at commas.
+   * Each class needs a public no-argument constructor.
+   */
+  static ProtocolRegistry fromClassNames(String classNames) {
+    final List<TypestateProtocol> protocols = new ArrayList<>();
+    for (String className : classNames.split(":")) {
+      try {
+        protocols.add(Class.forName(className.trim())
+          .asSubclass(TypestateProtocol.class)
+          .getConstructor()
+          .newInstance());
+      } catch (ReflectiveOperationException | ClassCastException e) {
+        throw new IllegalArgumentException("Could not load protocol " + className, e);
+      }
+    }
+    return new ProtocolRegistry(protocols);
+  }
+
+  List<TypestateProtocol> protocols() {
+    return protocols;
+  }
+
+  /**
+   * The call if `unit` is a call on some object, whether tracked or not, and
+   * whether its result is discarded or assigned.
+   */
+  static InstanceInvokeExpr instanceInvokeOf(Unit unit) {
+    if (unit instanceof Stmt && ((Stmt) unit).containsInvokeExpr()) {
+      InvokeExpr invokeExpr = ((Stmt) unit).getInvokeExpr();
+      if (invokeExpr instanceof InstanceInvokeExpr) {
+        return (InstanceInvokeExpr) invokeExpr;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The protocol governing a call, found from the class declaring the called
+   * method or else from the static type of the receiver. Null for calls on
+   * untracked objects, and for calls of methods outside the protocol, such
+   * as constructors or `toString`, which do not change the object's state.
+   */
+  TypestateProtocol protocolFor(InstanceInvokeExpr invokeExpr) {
+    TypestateProtocol protocol =
+      byClass.get(invokeExpr.getMethodRef().getDeclaringClass().getName());
+    if (protocol == null) {
+      protocol = protocolOf(invokeExpr.getBase().getType());
+    }
+    return protocol != null && protocol.hasMethod(invokeExpr.getMethodRef().getName()) ? protocol : null;
+  }
+
+  /** The protocol objects of static type `type` follow, or null. */
+  TypestateProtocol protocolOf(Type type) {
+    return type instanceof RefType ? byClass.get(((RefType) type).getClassName()) : null;
+  }
+
+  /**
+   * Whether `body` could touch a tracked object at all: through a local of a
+   * tracked type or an array of one, or through a call governed by a protocol.
+   */
+  boolean usesTrackedTypes(Body body) {
+    for (Local local : body.getLocals()) {
+      Type type = local.getType();
+      if (type instanceof ArrayType) {
+        type = ((ArrayType) type).baseType;
+      }
+      if (protocolOf(type) != null) {
+        return true;
+      }
+    }
+    for (Unit unit : body.getUnits()) {
+      if (protocolAt(unit) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** The protocol of the call at `unit`, or null if it is not a transition of a tracked object. */
+  TypestateProtocol protocolAt(Unit unit) {
+    final InstanceInvokeExpr invokeExpr = instanceInvokeOf(unit);
+    return invokeExpr != null ? protocolFor(invokeExpr) : null;
+  }
+}
@@ -0,0 +1,182 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import soot.Body;
+import soot.FastHierarchy;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.VoidType;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.StaticFieldRef;
+import soot.jimple.StaticInvokeExpr;
+
+
+/**
+ * The application methods reachable from a set of entry points, found with a
+ * class hierarchy (CHA) or rapid type (RTA) call graph. Both are cheap enough
+ * to build before the typestate analysis starts. Under RTA a virtual call
+ * only reaches classes that some reachable method instantiates; under CHA
+ * every concrete application class counts as instantiated.
+ *
+ * Library code is not walked, so methods that only the library calls back
+ * are unreachable unless they are entry points themselves. A static
+ * initializer is reachable once its class is instantiated or one of its
+ * static members is used, along with those of its superclasses.
+ */
+final class ReachableMethods {
+  enum Algorithm { CHA, RTA }
+
+  private final FastHierarchy hierarchy = Scene.v().getOrMakeFastHierarchy();
+  private final Set<SootMethod> reachable = new LinkedHashSet<>();
+  private final Deque<SootMethod> worklist = new ArrayDeque<>();
+  private final Set<SootClass> instantiated = new HashSet<>();
+  private final List<SootMethodRef> virtualCalls = new ArrayList<>();
+
+  private ReachableMethods() { }
+
+  /**
+   * Builds the reachable set in the current Scene. Each entry point is a
+   * class name, meaning all of its public methods, or a class name followed
+   * by `.` and a method name, meaning every method of that name.
+   */
+  static Set<SootMethod> from(List<String> entryPoints, Algorithm algorithm) {
+    final ReachableMethods methods = new ReachableMethods();
+    if (algorithm == Algorithm.CHA) {
+      for (SootClass sootClass : Scene.v().getApplicationClasses()) {
+        methods.instantiate(sootClass);
+      }
+    }
+    for (String entryPoint : entryPoints) {
+      for (SootMethod method : entryMethods(entryPoint)) {
+        if (!method.isStatic()) {
+          // Somebody outside has to create the receiver of an instance entry point.
+          methods.instantiate(method.getDeclaringClass());
+        }
+        methods.add(method);
+      }
+    }
+    methods.solve();
+    return Collections.unmodifiableSet(methods.reachable);
+  }
+
+  private static List<SootMethod> entryMethods(String entryPoint) {
+    final SootClass wholeClass = Scene.v().getSootClassUnsafe(entryPoint, false);
+    if (wholeClass != null && !wholeClass.isPhantom()) {
+      final List<SootMethod> methods = new ArrayList<>();
+      for (SootMethod method : wholeClass.getMethods()) {
+        if (method.isPublic()) {
+          methods.add(method);
+        }
+      }
+      return methods;
+    }
+
+    final int dot = entryPoint.lastIndexOf('.');
+    final SootClass sootClass =
+      dot > 0 ? Scene.v().getSootClassUnsafe(entryPoint.substring(0, dot), false) : null;
+    if (sootClass == null || sootClass.isPhantom()) {
+      throw new IllegalArgumentException("Unknown entry point " + entryPoint);
+    }
+    final String name = entryPoint.substring(dot + 1);
+    final List<SootMethod> methods = new ArrayList<>();
+    for (SootMethod method : sootClass.getMethods()) {
+      if (method.getName().equals(name)) {
+        methods.add(method);
+      }
+    }
+    if (methods.isEmpty()) {
+      throw new IllegalArgumentException("Unknown entry point " + entryPoint);
+    }
+    return methods;
+  }
+
+  private void solve() {
+    while (!worklist.isEmpty()) {
+      final SootMethod method = worklist.removeFirst();
+      if (!method.isConcrete()) {
+        continue;
+      }
+      final Body body = method.retrieveActiveBody();
+      for (Unit unit : body.getUnits()) {
+        for (ValueBox box : unit.getUseAndDefBoxes()) {
+          final Value value = box.getValue();
+          if (value instanceof NewExpr) {
+            instantiate(((NewExpr) value).getBaseType().getSootClass());
+          } else if (value instanceof InvokeExpr) {
+            call((InvokeExpr) value);
+          } else if (value instanceof StaticFieldRef) {
+            initialize(((StaticFieldRef) value).getFieldRef().declaringClass());
+          }
+        }
+      }
+    }
+  }
+
+  private void call(InvokeExpr invokeExpr) {
+    final SootMethodRef ref = invokeExpr.getMethodRef();
+    if (invokeExpr instanceof StaticInvokeExpr || invokeExpr instanceof SpecialInvokeExpr) {
+      // Private, super and constructor calls have a single target.
+      final SootMethod target = ref.tryResolve();
+      add(target);
+      if (target != null && target.isStatic()) {
+        initialize(target.getDeclaringClass());
+      }
+    } else if (invokeExpr instanceof InstanceInvokeExpr) {
+      virtualCalls.add(ref);
+      for (SootClass receiver : new ArrayList<>(instantiated)) {
+        dispatch(receiver, ref);
+      }
+    }
+  }
+
+  private void instantiate(SootClass sootClass) {
+    if (!sootClass.isApplicationClass() || sootClass.isAbstract() || sootClass.isInterface()
+        || !instantiated.add(sootClass)) {
+      return;
+    }
+    initialize(sootClass);
+    for (SootMethodRef ref : new ArrayList<>(virtualCalls)) {
+      dispatch(sootClass, ref);
+    }
+  }
+
+  /** Adds the static initializers that run when `sootClass` is first used. */
+  private void initialize(SootClass sootClass) {
+    for (SootClass current = sootClass; current != null && current.isApplicationClass();
+         current = current.hasSuperclass() ? current.getSuperclass() : null) {
+      add(current.getMethodUnsafe(SootMethod.staticInitializerName, Collections.emptyList(),
+                                  VoidType.v()));
+    }
+  }
+
+  /** Adds the target of `ref` on a receiver of class `receiver`, if it may be one. */
+  private void dispatch(SootClass receiver, SootMethodRef ref) {
+    final RefType declared = ref.getDeclaringClass().getType();
+    if (hierarchy.canStoreType(receiver.getType(), declared)) {
+      add(hierarchy.resolveMethod(receiver, ref, false));
+    }
+  }
+
+  private void add(SootMethod method) {
+    if (method != null && method.getDeclaringClass().isApplicationClass() && reachable.add(method)) {
+      worklist.addLast(method);
+    }
+  }
+}
@@ -0,0 +1,380 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import soot.toolkits.graph.DirectedGraph;
+
+
+/**
+ * Solves a forward flow analysis region by region, on the calling thread or
+ * on a fork-join pool.
+ *
+ * The regions are the strongly connected components of the graph. A region
+ * only reads the flows of the regions before it in the condensed graph, so
+ * it is solved once, after all of those are stable, and regions that do not
+ * reach each other may be solved at the same time. Flows are merged as in
+ * Soot's {@link soot.toolkits.scalar.FlowAnalysis}, taking predecessors in
+ * the order a depth first search from the heads reaches them, and inside a
+ * region units are visited in that search's reverse postorder. Each region
+ * thus goes through the same steps however regions are scheduled, and the
+ * flows are identical on one thread or many.
+ *
+ * Soot's own worklist also visits a unit after a loop before the loop is
+ * stable. The checker's merge keeps the report state of its first input and
+ * puts paths missing on one side in their initial state, so those early
+ * visits may leave traces in the fixed point; here they never happen.
+ */
+final class RegionFixedPoint<N, A> {
+  /** The parts of a flow analysis the solver drives. */
+  interface Analysis<N, A> {
+    A newInitialFlow();
+
+    A entryInitialFlow();
+
+    void merge(A in1, A in2, A out);
+
+    void copy(A source, A dest);
+
+    void flowThrough(A in, N node, A out);
+  }
+
+  // Stands for the flow into the heads in a list of predecessors.
+  private static final int ENTRY = -1;
+
+  private final Analysis<N, A> analysis;
+  private final A entryFlow;
+  // Nodes in reverse postorder. Every other per node array is indexed by that order.
+  private final List<N> order;
+  private final int[][] predecessors;
+  private final int[][] successors;
+  private final boolean[] cyclic;
+  private final A[] in;
+  private final A[] out;
+
+  // Regions are numbered in topological order. The members of region r are
+  // members[memberStart[r] .. memberStart[r + 1]), in reverse postorder, and
+  // its successors are kept the same way.
+  private final int[] regionOf;
+  private final int[] members;
+  private final int[] memberStart;
+  private final int[] regionSuccessors;
+  private final int[] successorStart;
+  private final int[] regionPredecessorCounts;
+
+  // Only used by a parallel solve.
+  private AtomicIntegerArray pending;
+  private Executor context;
+
+  @SuppressWarnings("unchecked")
+  RegionFixedPoint(DirectedGraph<N> graph, Analysis<N, A> analysis) {
+    this.analysis = analysis;
+    this.entryFlow = analysis.entryInitialFlow();
+
+    final int count = graph.size();
+    final List<N> nodes = new ArrayList<>(count);
+    final Map<N, Integer> ids = new HashMap<>(count * 2);
+    for (N node : graph) {
+      ids.put(node, nodes.size());
+      nodes.add(node);
+    }
+    final int[][] reaches = new int[count][];
+    final int[][] reachedFrom = new int[count][];
+    final int[] reachedCount = new int[count];
+    final int[] inDegree = new int[count];
+    for (int id = 0; id < count; ++id) {
+      final List<N> found = graph.getSuccsOf(nodes.get(id));
+      reaches[id] = new int[found.size()];
+      for (int i = 0; i < reaches[id].length; ++i) {
+        reaches[id][i] = ids.get(found.get(i));
+        ++inDegree[reaches[id][i]];
+      }
+    }
+    final List<N> headNodes = graph.getHeads();
+    final int[] heads = new int[headNodes.size()];
+    for (int i = 0; i < heads.length; ++i) {
+      heads[i] = ids.get(headNodes.get(i));
+      ++inDegree[heads[i]];
+    }
+    for (int id = 0; id < count; ++id) {
+      reachedFrom[id] = new int[inDegree[id]];
+    }
+
+    // Depth first search from the heads. As in Soot, a node lists its
+    // predecessors in the order the search discovers them.
+    for (int head : heads) {
+      reachedFrom[head][reachedCount[head]++] = ENTRY;
+    }
+    final boolean[] discovered = new boolean[count];
+    final int[] postorder = new int[count];
+    int size = 0;
+    final int[] stack = new int[count];
+    final int[] nextChild = new int[count];
+    for (int head : heads) {
+      if (discovered[head]) {
+        continue;
+      }
+      int depth = discover(head, stack, 0, discovered, reaches, reachedFrom, reachedCount);
+      while (depth > 0) {
+        final int node = stack[depth - 1];
+        if (nextChild[node] < reaches[node].length) {
+          final int child = reaches[node][nextChild[node]++];
+          if (!discovered[child]) {
+            depth = discover(child, stack, depth, discovered, reaches, reachedFrom, reachedCount);
+          }
+        } else {
+          postorder[size++] = node;
+          --depth;
+        }
+      }
+    }
+
+    // Renumber the reached nodes in reverse postorder.
+    final int[] rank = new int[count];
+    order = new ArrayList<>(size);
+    for (int i = 0; i < size; ++i) {
+      rank[postorder[size - 1 - i]] = i;
+      order.add(nodes.get(postorder[size - 1 - i]));
+    }
+    predecessors = new int[size][];
+    successors = new int[size][];
+    for (int i = 0; i < size; ++i) {
+      final int id = postorder[size - 1 - i];
+      // Predecessors the search never reached are left out, as in Soot.
+      int[] from = reachedFrom[id];
+      if (reachedCount[id] < from.length) {
+        from = Arrays.copyOf(from, reachedCount[id]);
+      }
+      for (int j = 0; j < from.length; ++j) {
+        from[j] = from[j] == ENTRY ? ENTRY : rank[from[j]];
+      }
+      predecessors[i] = from;
+      successors[i] = reaches[id];
+      for (int j = 0; j < successors[i].length; ++j) {
+        successors[i][j] = rank[successors[i][j]];
+      }
+    }
+
+    // Collecting everything that reaches each node backwards, in reverse
+    // postorder, yields the components in topological order.
+    regionOf = new int[size];
+    Arrays.fill(regionOf, -1);
+    final int[] regionSizes = new int[size + 1];
+    int regions = 0;
+    for (int root = 0; root < size; ++root) {
+      if (regionOf[root] >= 0) {
+        continue;
+      }
+      int depth = 0;
+      regionOf[root] = regions;
+      stack[depth++] = root;
+      while (depth > 0) {
+        final int node = stack[--depth];
+        ++regionSizes[regions];
+        for (int predecessor : predecessors[node]) {
+          if (predecessor != ENTRY && regionOf[predecessor] < 0) {
+            regionOf[predecessor] = regions;
+            stack[depth++] = predecessor;
+          }
+        }
+      }
+      ++regions;
+    }
+    memberStart = new int[regions + 1];
+    for (int region = 0; region < regions; ++region) {
+      memberStart[region + 1] = memberStart[region] + regionSizes[region];
+    }
+    members = new int[size];
+    final int[] filled = new int[regions];
+    cyclic = new boolean[size];
+    for (int node = 0; node < size; ++node) {
+      final int region = regionOf[node];
+      members[memberStart[region] + filled[region]++] = node;
+      cyclic[node] = regionSizes[region] > 1;
+    }
+
+    // Soot would revisit a unit that loops to itself forever, so here it is a loop.
+    final int[] counted = new int[regions];
+    Arrays.fill(counted, -1);
+    successorStart = new int[regions + 1];
+    regionPredecessorCounts = new int[regions];
+    for (int region = 0; region < regions; ++region) {
+      successorStart[region + 1] = successorStart[region];
+      for (int i = memberStart[region]; i < memberStart[region + 1]; ++i) {
+        for (int successor : successors[members[i]]) {
+          final int target = regionOf[successor];
+          if (target == region) {
+            cyclic[members[i]] |= successor == members[i];
+          } else if (counted[target] != region) {
+            counted[target] = region;
+            ++successorStart[region + 1];
+            ++regionPredecessorCounts[target];
+          }
+        }
+      }
+    }
+    regionSuccessors = new int[successorStart[regions]];
+    Arrays.fill(counted, -1);
+    for (int region = 0, next = 0; region < regions; ++region) {
+      for (int i = memberStart[region]; i < memberStart[region + 1]; ++i) {
+        for (int successor : successors[members[i]]) {
+          final int target = regionOf[successor];
+          if (target != region && counted[target] != region) {
+            counted[target] = region;
+            regionSuccessors[next++] = target;
+          }
+        }
+      }
+    }
+
+    // A node with a single predecessor shares that predecessor's flow, as in Soot.
+    in = (A[]) new Object[size];
+    out = (A[]) new Object[size];
+    for (int node = 0; node < size; ++node) {
+      in[node] = predecessors[node].length > 1 ? analysis.newInitialFlow() : flowOf(predecessors[node][0]);
+      out[node] = analysis.newInitialFlow();
+    }
+  }
+
+  /** Solves every region on the calling thread, then records the flow before and after each node. */
+  void solve(Map<N, A> before, Map<N, A> after) {
+    for (int region = 0; region + 1 < memberStart.length; ++region) {
+      solveRegion(region);
+    }
+    record(before, after);
+  }
+
+  /** Solves the regions on `pool`, then records the flow before and after each node. */
+  void solve(ForkJoinPool pool, Map<N, A> before, Map<N, A> after) {
+    pending = new AtomicIntegerArray(regionPredecessorCounts);
+    context = KittenAnalysisContext.currentContext();
+    final List<RegionTask> ready = new ArrayList<>();
+    for (int region = 0; region < regionPredecessorCounts.length; ++region) {
+      if (regionPredecessorCounts[region] == 0) {
+        ready.add(new RegionTask(region));
+      }
+    }
+    pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(ready)));
+    record(before, after);
+  }
+
+  private void record(Map<N, A> before, Map<N, A> after) {
+    for (int node = 0; node < order.size(); ++node) {
+      before.put(order.get(node), in[node]);
+      after.put(order.get(node), out[node]);
+    }
+  }
+
+  /** Solves regions, starting with `first`, and then whichever regions they made ready. */
+  private final class RegionTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int first;
+
+    RegionTask(int first) {
+      this.first = first;
+    }
+
+    @Override
+    protected void compute() {
+      context.execute(this::solveFromFirst);
+    }
+
+    private void solveFromFirst() {
+      final List<RegionTask> forked = new ArrayList<>();
+      int region = first;
+      while (region >= 0) {
+        solveRegion(region);
+        int next = -1;
+        for (int i = successorStart[region]; i < successorStart[region + 1]; ++i) {
+          final int successor = regionSuccessors[i];
+          if (pending.decrementAndGet(successor) != 0) {
+            continue;
+          }
+          // The first region made ready continues on this thread.
+          if (next < 0) {
+            next = successor;
+          } else {
+            final RegionTask task = new RegionTask(successor);
+            task.fork();
+            forked.add(task);
+          }
+        }
+        region = next;
+      }
+      forked.forEach(ForkJoinTask::join);
+    }
+  }
+
+  /** Iterates one region to its fixed point, always visiting its first pending node next. */
+  private void solveRegion(int region) {
+    final int start = memberStart[region];
+    final int end = memberStart[region + 1];
+    if (end - start == 1 && !cyclic[members[start]]) {
+      flowThrough(members[start]);
+      return;
+    }
+    // Members are in reverse postorder, so a node's position in the region
+    // follows from its own number.
+    final BitSet queued = new BitSet(end - start);
+    queued.set(0, end - start);
+    for (int next = queued.nextSetBit(0); next >= 0; next = queued.nextSetBit(0)) {
+      queued.clear(next);
+      final int node = members[start + next];
+      if (flowThrough(node)) {
+        for (int successor : successors[node]) {
+          if (regionOf[successor] == region) {
+            queued.set(Arrays.binarySearch(members, start, end, successor) - start);
+          }
+        }
+      }
+    }
+  }
+
+  /** Merges the flows into `node` and passes them through it. Whether its out flow may have changed. */
+  private boolean flowThrough(int node) {
+    final int[] from = predecessors[node];
+    if (from.length > 1) {
+      analysis.copy(flowOf(from[0]), in[node]);
+      for (int i = 1; i < from.length; ++i) {
+        final A merged = analysis.newInitialFlow();
+        analysis.merge(in[node], flowOf(from[i]), merged);
+        analysis.copy(merged, in[node]);
+      }
+    }
+    if (!cyclic[node]) {
+      analysis.flowThrough(in[node], order.get(node), out[node]);
+      return true;
+    }
+    final A result = analysis.newInitialFlow();
+    analysis.flowThrough(in[node], order.get(node), result);
+    if (result.equals(out[node])) {
+      return false;
+    }
+    analysis.copy(result, out[node]);
+    return true;
+  }
+
+  private A flowOf(int node) {
+    return node == ENTRY ? entryFlow : out[node];
+  }
+
+  /** Pushes `node` on the search stack and tells its successors it reaches them. */
+  private static int discover(int node, int[] stack, int depth, boolean[] discovered, int[][] reaches,
+                              int[][] reachedFrom, int[] reachedCount) {
+    discovered[node] = true;
+    for (int successor : reaches[node]) {
+      reachedFrom[successor][reachedCount[successor]++] = node;
+    }
+    stack[depth] = node;
+    return depth + 1;
+  }
+}
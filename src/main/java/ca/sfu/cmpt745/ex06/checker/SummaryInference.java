@@ -0,0 +1,177 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import soot.Body;
+import soot.Local;
+import soot.RefLikeType;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.CastExpr;
+import soot.jimple.DefinitionStmt;
+import soot.jimple.IdentityStmt;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.ParameterRef;
+import soot.jimple.ReturnStmt;
+import soot.jimple.Stmt;
+import soot.jimple.ThisRef;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+
+
+/**
+ * Derives {@link MethodSummary summaries} from the bodies of simple library
+ * methods, such as helpers that call protocol methods on a parameter, keep
+ * it in a field, or hand it back. Anything the inference cannot follow
+ * exactly becomes a `havoc` of the parameter when its type is tracked.
+ * Larger libraries, such as `java.util`, are better summarized by hand.
+ */
+final class SummaryInference {
+  private final ProtocolRegistry protocols;
+
+  SummaryInference(ProtocolRegistry protocols) {
+    this.protocols = protocols;
+  }
+
+  /** Summaries for the public methods of `classes` that affect tracked objects. */
+  List<MethodSummary> summarize(Iterable<SootClass> classes) {
+    final List<MethodSummary> summaries = new ArrayList<>();
+    for (SootClass sootClass : classes) {
+      for (SootMethod method : new ArrayList<>(sootClass.getMethods())) {
+        if (!method.isPublic() || !method.isConcrete()) {
+          continue;
+        }
+        final MethodSummary summary = summarize(method.getSignature(), method.retrieveActiveBody());
+        if (!summary.effects.isEmpty()) {
+          summaries.add(summary);
+        }
+      }
+    }
+    return summaries;
+  }
+
+  MethodSummary summarize(String signature, Body body) {
+    Local receiver = null;
+    final Map<Local, Integer> parameters = new HashMap<>();
+    final Set<Local> redefined = new HashSet<>();
+    final Map<Local, Value> definitions = new HashMap<>();
+    for (Unit unit : body.getUnits()) {
+      if (unit instanceof IdentityStmt) {
+        final IdentityStmt stmt = (IdentityStmt) unit;
+        if (stmt.getRightOp() instanceof ThisRef) {
+          receiver = (Local) stmt.getLeftOp();
+        } else if (stmt.getRightOp() instanceof ParameterRef) {
+          parameters.put((Local) stmt.getLeftOp(), ((ParameterRef) stmt.getRightOp()).getIndex());
+        }
+      } else if (unit instanceof DefinitionStmt && ((DefinitionStmt) unit).getLeftOp() instanceof Local) {
+        final Local local = (Local) ((DefinitionStmt) unit).getLeftOp();
+        if (definitions.put(local, ((DefinitionStmt) unit).getRightOp()) != null) {
+          redefined.add(local);
+        }
+      }
+    }
+    for (Local parameter : parameters.keySet()) {
+      if (definitions.containsKey(parameter)) {
+        redefined.add(parameter);
+      }
+    }
+
+    final List<MethodSummary.Effect> effects = new ArrayList<>();
+    final boolean straightLine = isStraightLine(new BriefUnitGraph(body));
+    for (Unit unit : body.getUnits()) {
+      if (unit instanceof ReturnStmt && isLoadFrom(((ReturnStmt) unit).getOp(), receiver, definitions, redefined)) {
+        effects.add(new MethodSummary.Effect(MethodSummary.Kind.LOAD, MethodSummary.RECEIVER, List.of()));
+        break;
+      }
+    }
+    for (var entry : parameters.entrySet()) {
+      if (!redefined.contains(entry.getKey()) && entry.getKey().getType() instanceof RefLikeType) {
+        summarizeParameter(entry.getKey(), entry.getValue(), receiver, body, straightLine, effects);
+      }
+    }
+    effects.sort((first, second) -> Integer.compare(first.argument, second.argument));
+    return new MethodSummary(signature, effects);
+  }
+
+  private void summarizeParameter(Local parameter, int index, Local receiver, Body body,
+                                  boolean straightLine, List<MethodSummary.Effect> effects) {
+    final List<String> calls = new ArrayList<>();
+    boolean escapes = false;
+    boolean stored = false;
+    boolean returned = false;
+    for (Unit unit : body.getUnits()) {
+      final Stmt stmt = (Stmt) unit;
+      if (stmt.containsInvokeExpr()) {
+        final InvokeExpr invokeExpr = stmt.getInvokeExpr();
+        if (invokeExpr instanceof InstanceInvokeExpr
+            && ((InstanceInvokeExpr) invokeExpr).getBase() == parameter
+            && protocols.protocolFor((InstanceInvokeExpr) invokeExpr) != null) {
+          calls.add(invokeExpr.getMethod().getName());
+        } else if (invokeExpr.getArgs().contains(parameter)) {
+          escapes = true;
+        }
+      }
+      if (unit instanceof DefinitionStmt && !(unit instanceof IdentityStmt)
+          && uncast(((DefinitionStmt) unit).getRightOp()) == parameter) {
+        final Value left = ((DefinitionStmt) unit).getLeftOp();
+        if (left instanceof InstanceFieldRef && ((InstanceFieldRef) left).getBase() == receiver) {
+          stored = true;
+        } else {
+          escapes = true;
+        }
+      }
+      if (unit instanceof ReturnStmt && ((ReturnStmt) unit).getOp() == parameter) {
+        returned = true;
+      }
+    }
+
+    final boolean tracked = protocols.protocolOf(parameter.getType()) != null;
+    if (!calls.isEmpty() && straightLine && !escapes) {
+      effects.add(new MethodSummary.Effect(MethodSummary.Kind.CALL, index, calls));
+    } else if (!calls.isEmpty() || (escapes && tracked)) {
+      effects.add(new MethodSummary.Effect(MethodSummary.Kind.HAVOC, index, List.of()));
+      return;
+    }
+    if (stored && receiver != null) {
+      effects.add(new MethodSummary.Effect(MethodSummary.Kind.STORE, index, List.of()));
+    }
+    if (returned) {
+      effects.add(new MethodSummary.Effect(MethodSummary.Kind.RETURN, index, List.of()));
+    }
+  }
+
+  /** Whether `value` is, up to casts, a field of `receiver` read into a local once. */
+  private static boolean isLoadFrom(Value value, Local receiver, Map<Local, Value> definitions,
+                                    Set<Local> redefined) {
+    for (int depth = 0; value instanceof Local && depth < 4; ++depth) {
+      if (redefined.contains(value)) {
+        return false;
+      }
+      value = uncast(definitions.get(value));
+    }
+    return receiver != null && value instanceof InstanceFieldRef
+        && ((InstanceFieldRef) value).getBase() == receiver;
+  }
+
+  private static Value uncast(Value value) {
+    return value instanceof CastExpr ? ((CastExpr) value).getOp() : value;
+  }
+
+  private static boolean isStraightLine(UnitGraph graph) {
+    for (Unit unit : graph) {
+      if (graph.getSuccsOf(unit).size() > 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
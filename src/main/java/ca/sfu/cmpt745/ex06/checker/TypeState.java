@@ -0,0 +1,71 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+
+/**
+ * The abstract state of one tracked object: the protocol it follows, the
+ * single state used for error reports, and a bit mask of every state it may
+ * be in.
+ */
+final class TypeState {
+  final TypestateProtocol protocol;
+  final int state;
+  final int possible;
+
+  TypeState(TypestateProtocol protocol, int state, int possible) {
+    this.protocol = protocol;
+    this.state = state;
+    this.possible = possible;
+  }
+
+  static TypeState initial(TypestateProtocol protocol) {
+    return new TypeState(protocol, protocol.initialState(), protocol.initialMask());
+  }
+
+  /** A state that a summary could not describe: any state at all. */
+  static TypeState unknown(TypestateProtocol protocol) {
+    return new TypeState(protocol, protocol.unknownState(), protocol.allStatesMask());
+  }
+
+  String stateName() {
+    return protocol.stateName(state);
+  }
+
+  /** This state where the other side of a merge had nothing, i.e. the initial state. */
+  TypeState orInitial() {
+    return new TypeState(protocol, state, possible | protocol.initialMask());
+  }
+
+  /** Keeps this report state and unions the possible states. */
+  TypeState mergedWith(TypeState other) {
+    if (other.protocol != protocol) {
+      return this;
+    }
+    return new TypeState(protocol, state, possible | other.possible);
+  }
+
+  /** The state of a summary that may hold either object, as after a weak update. */
+  TypeState joinedWith(TypeState other) {
+    if (other.protocol != protocol) {
+      return new TypeState(protocol, protocol.unknownState(), possible | other.possible);
+    }
+    final int joined = state == other.state ? state : protocol.unknownState();
+    return new TypeState(protocol, joined, possible | other.possible);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof TypeState)) {
+      return false;
+    }
+    final var other = (TypeState) o;
+    return protocol == other.protocol && state == other.state && possible == other.possible;
+  }
+
+  @Override
+  public int hashCode() {
+    return (System.identityHashCode(protocol) * 31 + state) * 31 + possible;
+  }
+}
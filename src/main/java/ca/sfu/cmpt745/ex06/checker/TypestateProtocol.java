@@ -0,0 +1,128 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.Arrays;
+
+
+/**
+ * A typestate protocol for one tracked class: its states, the methods that
+ * change them, and which calls are legal in which state.
+ *
+ * States and methods also have small integer codes so that the analysis can
+ * keep bit masks of possible states and the runtime {@link KittenMonitor}
+ * can use a flat transition table. Subclasses have no Soot dependencies
+ * because instrumented programs load them, and must have a public no-argument
+ * constructor so they can be named in the `protocols` phase option.
+ */
+public abstract class TypestateProtocol {
+  /** The entry in {@link #transition} for a call that is not allowed. */
+  public static final int ILLEGAL = -1;
+
+  private final String trackedClass;
+  private final String[] states;
+  private final String[] methods;
+  private final int initialState;
+  private final int unknownState;
+  // transitions[state][method] is the resulting state code, or ILLEGAL. The
+  // last method column stands for every method outside of the protocol, such
+  // as constructors and the methods of Object, which leave the state alone.
+  private final int[][] transitions;
+
+  /**
+   * Builds the transition table from {@link #isValidTransition} and
+   * {@link #targetState}, so those must not depend on subclass fields.
+   */
+  protected TypestateProtocol(String trackedClass,
+                              String[] states,
+                              String[] methods,
+                              String initialState,
+                              String unknownState) {
+    if (states.length > Integer.SIZE) {
+      throw new IllegalArgumentException("A protocol may have at most " + Integer.SIZE + " states");
+    }
+    this.trackedClass = trackedClass;
+    this.states = states.clone();
+    this.methods = methods.clone();
+    this.initialState = stateCode(initialState);
+    this.unknownState = stateCode(unknownState);
+    this.transitions = new int[states.length][methods.length + 1];
+    for (int state = 0; state < states.length; ++state) {
+      for (int method = 0; method < methods.length; ++method) {
+        final String name = methods[method];
+        transitions[state][method] = isValidTransition(states[state], name)
+          ? stateCode(targetState(name))
+          : ILLEGAL;
+      }
+      transitions[state][methods.length] = state;
+    }
+  }
+
+  public abstract boolean isValidTransition(String currentState, String methodName);
+
+  /** The state after a legal call of `methodName`, one of the protocol's methods. */
+  public abstract String targetState(String methodName);
+
+  /** The fully qualified name of the class whose objects follow this protocol. */
+  public final String trackedClass() {
+    return trackedClass;
+  }
+
+  public final int initialState() {
+    return initialState;
+  }
+
+  /** The state used when several states are joined into one. */
+  public final int unknownState() {
+    return unknownState;
+  }
+
+  public final int initialMask() {
+    return 1 << initialState;
+  }
+
+  public final int allStatesMask() {
+    return states.length == Integer.SIZE ? -1 : (1 << states.length) - 1;
+  }
+
+  public final String stateName(int state) {
+    return states[state];
+  }
+
+  /** The name of a method code, or "" for methods outside of the protocol. */
+  public final String methodName(int method) {
+    return method < methods.length ? methods[method] : "";
+  }
+
+  public final int stateCode(String state) {
+    final int code = Arrays.asList(states).indexOf(state);
+    if (code < 0) {
+      throw new IllegalArgumentException("Unknown state " + state + " for " + trackedClass);
+    }
+    return code;
+  }
+
+  /** Whether calls of `methodName` are transitions of this protocol. */
+  public final boolean hasMethod(String methodName) {
+    return Arrays.asList(methods).contains(methodName);
+  }
+
+  public final int methodCode(String methodName) {
+    final int code = Arrays.asList(methods).indexOf(methodName);
+    return code >= 0 ? code : methods.length;
+  }
+
+  /** The state after calling `method` in `state`, or {@link #ILLEGAL}. */
+  public final int transition(int state, int method) {
+    return transitions[state][method];
+  }
+
+  /** The states in the bit mask `possible` from which `method` may be called. */
+  public final int legalStates(int possible, int method) {
+    int legal = 0;
+    for (int state = 0; state < states.length; ++state) {
+      if ((possible & (1 << state)) != 0 && transitions[state][method] != ILLEGAL) {
+        legal |= 1 << state;
+      }
+    }
+    return legal;
+  }
+}
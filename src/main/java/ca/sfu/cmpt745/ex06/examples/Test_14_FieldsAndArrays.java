@@ -0,0 +1,53 @@
+package ca.sfu.cmpt745.ex06.examples;
+
+import ca.sfu.cmpt745.ex06.kittens.Kitten;
+
+
+public class Test_14_FieldsAndArrays {
+  static class Owner {
+    Kitten k = new Kitten();
+  }
+
+  static class Node {
+    Node next;
+    Kitten k = new Kitten();
+  }
+
+  Kitten k = new Kitten();
+  Owner owner = new Owner();
+
+  public void test(Kitten[] kittens) {
+    this.k.pet();
+    this.k.scare();
+
+    this.owner.k.scare();
+    this.owner.k.tease();
+    this.owner.k.scare();
+    this.owner.k.ignore();
+
+    kittens[0].scare();
+    kittens[1].feed();
+
+    this.k.pet();
+  }
+
+  public void storeThenCall() {
+    Kitten local = new Kitten();
+    this.k = local;
+    local.scare();
+    this.k.pet();
+  }
+
+  public void loadFromArray(Kitten[] kittens) {
+    Kitten kitten = kittens[0];
+    kitten.scare();
+    kitten.pet();
+  }
+
+  public void loadThroughLongPath(Node node) {
+    Kitten kitten = node.next.next.next.next.k;
+    kitten.scare();
+    kitten.pet();
+  }
+}
+
@@ -0,0 +1,31 @@
+package ca.sfu.cmpt745.ex06.examples;
+
+import ca.sfu.cmpt745.ex06.kittens.Kitten;
+
+
+public class Test_15_HybridMonitors {
+  public void test(boolean c) {
+    Kitten kitten1 = new Kitten();
+    kitten1.pet();
+    if (c) {
+      kitten1.scare();
+    }
+    kitten1.pet();
+    kitten1.feed();
+
+    Kitten kitten2 = new Kitten();
+    kitten2.scare();
+    kitten2.tease();
+    kitten2.scare();
+    kitten2.pet();
+  }
+
+  public void loop(int n) {
+    Kitten kitten = new Kitten();
+    kitten.scare();
+    for (int i = 0; i < n; ++i) {
+      kitten.tease();
+    }
+  }
+}
+
@@ -0,0 +1,40 @@
+package ca.sfu.cmpt745.ex06.examples;
+
+import ca.sfu.cmpt745.ex06.kittens.Kitten;
+import ca.sfu.cmpt745.ex06.kittens.LitterBox;
+
+
+public class Test_16_MultipleProtocols {
+  public void test(boolean c) {
+    Kitten kitten = new Kitten();
+    LitterBox box = new LitterBox();
+    box.fill();
+    kitten.feed();
+    if (c) {
+      box.use();
+    }
+    box.fill();
+    kitten.scare();
+    box.empty();
+    kitten.pet();
+    box.fill();
+    box.use();
+  }
+
+  public boolean useBeforeFill() {
+    LitterBox box = new LitterBox();
+    box.empty();
+    boolean used = box.use();
+    box.fill();
+    used &= box.use();
+    box.fill();
+    return used;
+  }
+
+  public String teaseNewKitten() {
+    Kitten kitten = new Kitten();
+    String name = kitten.toString();
+    kitten.tease();
+    return name;
+  }
+}
@@ -0,0 +1,56 @@
+package ca.sfu.cmpt745.ex06.examples;
+
+import ca.sfu.cmpt745.ex06.kittens.Kitten;
+
+
+public class Test_17_Reachability {
+  interface Chore {
+    void doIt(Kitten kitten);
+  }
+
+  static class Feeding implements Chore {
+    public void doIt(Kitten kitten) {
+      kitten.feed();
+    }
+  }
+
+  static class Teasing implements Chore {
+    public void doIt(Kitten kitten) {
+      kitten.tease();
+    }
+  }
+
+  public void test() {
+    Kitten kitten = new Kitten();
+    helper(kitten);
+    Chore chore = new Feeding();
+    chore.doIt(new Kitten());
+    count(3);
+    Schedule.plan();
+  }
+
+  private void helper(Kitten kitten) {
+    kitten.scare();
+    kitten.pet();
+  }
+
+  private int count(int n) {
+    return n + 1;
+  }
+
+  private void unused() {
+    Kitten kitten = new Kitten();
+    kitten.scare();
+    kitten.pet();
+  }
+
+  static class Schedule {
+    static {
+      Kitten kitten = new Kitten();
+      kitten.scare();
+      kitten.pet();
+    }
+
+    static void plan() { }
+  }
+}
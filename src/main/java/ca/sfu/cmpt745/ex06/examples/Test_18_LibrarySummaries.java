@@ -0,0 +1,53 @@
+package ca.sfu.cmpt745.ex06.examples;
+
+import ca.sfu.cmpt745.ex06.kittens.Kitten;
+import ca.sfu.cmpt745.ex06.kittens.KittenCare;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+
+public class Test_18_LibrarySummaries {
+  public void test() {
+    Kitten kitten1 = new Kitten();
+    kitten1.scare();
+    Kitten checked = Objects.requireNonNull(kitten1);
+    checked.pet();
+
+    Kitten kitten2 = new Kitten();
+    kitten2.scare();
+    Optional<Kitten> maybe = Optional.of(kitten2);
+    maybe.get().pet();
+
+    Kitten kitten3 = new Kitten();
+    KittenCare.exercise(kitten3);
+    kitten3.pet();
+
+    Kitten kitten4 = new Kitten();
+    kitten4.scare();
+    KittenCare.calm(kitten4);
+
+    ArrayList<Kitten> kittens = new ArrayList<>();
+    kittens.add(new Kitten());
+    for (Kitten kitten : kittens) {
+      kitten.feed();
+    }
+
+    Kitten kitten5 = new Kitten();
+    kitten5.scare();
+    Optional<Kitten> some = Optional.ofNullable(kitten5);
+    Kitten fallback = new Kitten();
+    fallback.pet();
+    some.orElse(fallback).feed();
+    some.get().pet();
+  }
+
+  public void loadFromList() {
+    List<Kitten> kittens = new ArrayList<>();
+    kittens.add(new Kitten());
+    Kitten kitten = kittens.get(0);
+    kitten.scare();
+    kitten.pet();
+  }
+}
@@ -0,0 +1,22 @@
+package ca.sfu.cmpt745.ex06.kittens;
+
+/**
+ * Helpers for looking after kittens, standing in for an in-house library
+ * that is summarized once instead of being analyzed with every program.
+ */
+public final class KittenCare {
+  private KittenCare() { }
+
+  public static void calm(Kitten kitten) {
+    kitten.pet();
+  }
+
+  public static void exercise(Kitten kitten) {
+    kitten.feed();
+    kitten.scare();
+  }
+
+  public static Kitten checkIn(Kitten kitten) {
+    return kitten;
+  }
+}
@@ -0,0 +1,12 @@
+package ca.sfu.cmpt745.ex06.kittens;
+
+/**
+ * A litter box for the kittens. It has to be filled before it is used, and
+ * filling it again without emptying it first only makes a mess.
+ */
+public final class LitterBox {
+  public void fill() { }
+  /** Returns whether the box was clean enough to use. */
+  public boolean use() { return true; }
+  public void empty() { }
+}
@@ -1,41 +1,30 @@
 package ca.sfu.cmpt745.ex06.checker;
 
-import ca.sfu.cmpt745.ex06.examples.*;
-import ca.sfu.cmpt745.ex06.kittens.Kitten;
-
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.ArrayList;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNotNull;
-
-import soot.Body;
-import soot.G;
-import soot.PackManager;
-import soot.Scene;
-import soot.SootClass;
-import soot.Transform;
-import soot.options.Options;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
+// Each test runs Soot in its own analysis context, so tests may run in parallel.
 class KittenCheckerTests {
-  static JsonKittenReporter reporter = null;
+  JsonKittenReporter reporter = null;
+  KittenAnalysisContext context = null;
 
   @BeforeEach
   final void
   initializeSoot() {
-    reporter  = new JsonKittenReporter();
-
-    soot.G.v().reset();
-    Options.v().set_keep_line_number(true);
-    Options.v().set_soot_classpath(".:target/classes:VIRTUAL_FS_FOR_JDK");
-    final var checker   = new KittenChecker(reporter);
-    final var transform = new Transform("jtp.KittenChecker", checker);
-    PackManager.v().getPack("jtp").add(transform);
-    Scene.v().addBasicClass("ca.sfu.cmpt745.ex06.kittens.Kitten",
-                            SootClass.SIGNATURES);
+    reporter = new JsonKittenReporter();
+    context  = new KittenAnalysisContext(".:target/classes:VIRTUAL_FS_FOR_JDK");
   }
 
   @Test
@@ -45,11 +34,11 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_01_Basic";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(0, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(0, errors.lineCount());
   }
 
   @Test
@@ -59,16 +48,15 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_02_BasicError";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(1, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(1, errors.lineCount());
 
     final int LINE = 12;
     final int NUMBER_OF_ERRORS = 1;
-    final var onLine = allErrors.get(LINE);
-    assertNotNull(onLine);
+    final var onLine = errors.onLine(exampleName, LINE).toList();
     assertEquals(NUMBER_OF_ERRORS, onLine.size());
 
     // With those, we can safely check the specific errors involved
@@ -85,11 +73,11 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_03_Conditional";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(0, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(0, errors.lineCount());
   }
 
   @Test
@@ -99,16 +87,15 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_04_ConditionalError";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(1, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(1, errors.lineCount());
 
     final int LINE = 14;
     final int NUMBER_OF_ERRORS = 1;
-    final var onLine = allErrors.get(LINE);
-    assertNotNull(onLine);
+    final var onLine = errors.onLine(exampleName, LINE).toList();
     assertEquals(NUMBER_OF_ERRORS, onLine.size());
 
     // With those, we can safely check the specific errors involved
@@ -125,11 +112,11 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_05_Loop";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(0, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(0, errors.lineCount());
   }
 
   @Test
@@ -139,16 +126,15 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_06_LoopError";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(1, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(1, errors.lineCount());
 
     final int LINE = 12;
     final int NUMBER_OF_ERRORS = 1;
-    final var onLine = allErrors.get(LINE);
-    assertNotNull(onLine);
+    final var onLine = errors.onLine(exampleName, LINE).toList();
     assertEquals(NUMBER_OF_ERRORS, onLine.size());
 
     // With those, we can safely check the specific errors involved
@@ -165,11 +151,11 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_07_Propagate";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(0, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(0, errors.lineCount());
   }
 
   @Test
@@ -179,16 +165,15 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_08_PropagateError";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(1, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(1, errors.lineCount());
 
     final int LINE = 14;
     final int NUMBER_OF_ERRORS = 1;
-    final var onLine = allErrors.get(LINE);
-    assertNotNull(onLine);
+    final var onLine = errors.onLine(exampleName, LINE).toList();
     assertEquals(NUMBER_OF_ERRORS, onLine.size());
 
     // With those, we can safely check the specific errors involved
@@ -205,16 +190,15 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_09_PuttingTogether";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(1, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(1, errors.lineCount());
 
     final int LINE = 18;
     final int NUMBER_OF_ERRORS = 1;
-    final var onLine = allErrors.get(LINE);
-    assertNotNull(onLine);
+    final var onLine = errors.onLine(exampleName, LINE).toList();
     assertEquals(NUMBER_OF_ERRORS, onLine.size());
 
     // With those, we can safely check the specific errors involved
@@ -231,16 +215,15 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_10_MultipleVariables";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(1, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(1, errors.lineCount());
 
     final int LINE = 28;
     final int NUMBER_OF_ERRORS = 1;
-    final var onLine = allErrors.get(LINE);
-    assertNotNull(onLine);
+    final var onLine = errors.onLine(exampleName, LINE).toList();
     assertEquals(NUMBER_OF_ERRORS, onLine.size());
 
     // With those, we can safely check the specific errors involved
@@ -257,16 +240,15 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_11_MultipleVariablesMerge";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(1, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(1, errors.lineCount());
 
     final int LINE = 31;
     final int NUMBER_OF_ERRORS = 1;
-    final var onLine = allErrors.get(LINE);
-    assertNotNull(onLine);
+    final var onLine = errors.onLine(exampleName, LINE).toList();
     assertEquals(NUMBER_OF_ERRORS, onLine.size());
 
     // With those, we can safely check the specific errors involved
@@ -283,17 +265,16 @@ class KittenCheckerTests {
     final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_12_MultipleDistinctErrors";
     final String[] args = new String[] { exampleName };
 
-    soot.Main.main(args);
+    context.check(reporter, args);
 
     // First check broad constraints that errors were found on the right lines
-    final var allErrors = reporter.getErrors();
-    assertEquals(2, allErrors.size());
+    final var errors = reporter.errorStore();
+    assertEquals(2, errors.lineCount());
 
     {
       final int LINE = 42;
       final int NUMBER_OF_ERRORS = 1;
-      final var onLine = allErrors.get(LINE);
-      assertNotNull(onLine);
+      final var onLine = errors.onLine(exampleName, LINE).toList();
       assertEquals(NUMBER_OF_ERRORS, onLine.size());
 
       // With those, we can safely check the specific errors involved
@@ -306,8 +287,7 @@ class KittenCheckerTests {
     {
       final int LINE = 51;
       final int NUMBER_OF_ERRORS = 1;
-      final var onLine = allErrors.get(LINE);
-      assertNotNull(onLine);
+      final var onLine = errors.onLine(exampleName, LINE).toList();
       assertEquals(NUMBER_OF_ERRORS, onLine.size());
 
       // With those, we can safely check the specific errors involved
@@ -317,5 +297,259 @@ class KittenCheckerTests {
       assertEquals("plotting", error.target);
     }
   }
-}
 
+  @Test
+  @DisplayName("Check kittens stored in fields and arrays.")
+  final void
+  fieldsAndArrays() {
+    final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_14_FieldsAndArrays";
+    final String[] args = new String[] { exampleName };
+
+    context.check(reporter, args);
+
+    // Only the kitten in `this.k` is misused in `test`; the nested field and
+    // the summarized array elements are used correctly. A kitten loaded from
+    // an array element or a cut off path is one object, so it is misused too.
+    final var errors = reporter.errorStore();
+    assertEquals(4, errors.lineCount());
+
+    {
+      final int LINE = 31;
+      final int NUMBER_OF_ERRORS = 1;
+      final var onLine = errors.onLine(exampleName, LINE).toList();
+      assertEquals(NUMBER_OF_ERRORS, onLine.size());
+
+      final var error = onLine.get(0);
+      assertEquals("running", error.source);
+      assertEquals("sleeping", error.target);
+    }
+
+    {
+      // The field still holds the kitten scared through the local it was stored from.
+      final int LINE = 38;
+      final int NUMBER_OF_ERRORS = 1;
+      final var onLine = errors.onLine(exampleName, LINE).toList();
+      assertEquals(NUMBER_OF_ERRORS, onLine.size());
+
+      final var error = onLine.get(0);
+      assertEquals("running", error.source);
+      assertEquals("sleeping", error.target);
+    }
+
+    for (int line : new int[] { 44, 50 }) {
+      final var onLine = errors.onLine(exampleName, line).toList();
+      assertEquals(1, onLine.size());
+      assertEquals("running", onLine.get(0).source);
+      assertEquals("sleeping", onLine.get(0).target);
+    }
+  }
+
+  @Test
+  @DisplayName("Check that kittens and litter boxes are checked in the same pass.")
+  final void
+  multipleProtocols() {
+    final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_16_MultipleProtocols";
+    final String[] args = new String[] { exampleName };
+
+    context.check(reporter, args);
+
+    final var errors = reporter.errorStore();
+    assertEquals(5, errors.lineCount());
+
+    // The litter box is refilled without being emptied on either path.
+    final var boxErrors = errors.onLine(exampleName, 16).toList();
+    assertEquals(1, boxErrors.size());
+    assertEquals("fresh", boxErrors.get(0).source);
+    assertEquals("fresh", boxErrors.get(0).target);
+
+    // The kitten's error is unaffected by the litter box calls around it.
+    final var kittenErrors = errors.onLine(exampleName, 19).toList();
+    assertEquals(1, kittenErrors.size());
+    assertEquals("running", kittenErrors.get(0).source);
+    assertEquals("sleeping", kittenErrors.get(0).target);
+
+    // Calls whose result is kept follow the protocol like any other call.
+    final var usedErrors = errors.onLine(exampleName, 27).toList();
+    assertEquals(1, usedErrors.size());
+    assertEquals("empty", usedErrors.get(0).source);
+    assertEquals("dirty", usedErrors.get(0).target);
+
+    final var refillErrors = errors.onLine(exampleName, 30).toList();
+    assertEquals(1, refillErrors.size());
+    assertEquals("dirty", refillErrors.get(0).source);
+    assertEquals("fresh", refillErrors.get(0).target);
+
+    // Constructors and other methods outside the protocol leave the state alone.
+    final var teaseErrors = errors.onLine(exampleName, 37).toList();
+    assertEquals(1, teaseErrors.size());
+    assertEquals("sleeping", teaseErrors.get(0).source);
+    assertEquals("playing", teaseErrors.get(0).target);
+  }
+
+  @Test
+  @DisplayName("Check that only methods reachable from the entry points are checked.")
+  final void
+  reachabilityPruning() {
+    final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_17_Reachability";
+    final String[] args = new String[] {
+      "-p", "jtp.KittenChecker", "entry-points:" + exampleName + ".test",
+      exampleName, exampleName + "$Chore", exampleName + "$Feeding", exampleName + "$Teasing",
+      exampleName + "$Schedule"
+    };
+
+    context.check(reporter, args);
+
+    // The error in `unused` is never reached. Under CHA every chore may run.
+    final var errors = reporter.errorStore();
+    assertEquals(3, errors.lineCount());
+    assertEquals(1, errors.lineCount(exampleName));
+    assertEquals(1, errors.onLine(exampleName, 34).toList().size());
+    assertEquals(1, errors.lineCount(exampleName + "$Teasing"));
+    assertEquals(1, errors.lineCount(exampleName + "$Schedule"));
+
+    final var skipped = reporter.getSkipped();
+    assertTrue(skipped.stream().anyMatch(method ->
+      method.method.equals("void unused()") && method.source.equals("unreachable")));
+    assertTrue(skipped.stream().anyMatch(method ->
+      method.method.equals("int count(int)") && method.source.equals("no tracked types")));
+    assertTrue(skipped.stream().noneMatch(method -> method.method.startsWith("void doIt")));
+  }
+
+  @Test
+  @DisplayName("Check that RTA only dispatches to instantiated classes.")
+  final void
+  rapidTypePruning() {
+    final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_17_Reachability";
+    final String[] args = new String[] {
+      "-p", "jtp.KittenChecker", "entry-points:" + exampleName + ".test,call-graph:rta",
+      exampleName, exampleName + "$Chore", exampleName + "$Feeding", exampleName + "$Teasing",
+      exampleName + "$Schedule"
+    };
+
+    context.check(reporter, args);
+
+    // Teasing is never created, so its error is unreachable. Schedule is never
+    // created either, but calling its static method runs its static initializer.
+    final var errors = reporter.errorStore();
+    assertEquals(2, errors.lineCount());
+    assertEquals(1, errors.lineCount(exampleName));
+    assertEquals(0, errors.lineCount(exampleName + "$Teasing"));
+    assertEquals(1, errors.onLine(exampleName + "$Schedule", 51).toList().size());
+    assertTrue(reporter.getSkipped().stream().anyMatch(method ->
+      method.className.equals(exampleName + "$Teasing") && method.method.startsWith("void doIt")));
+  }
+
+  @Test
+  @DisplayName("Check that library calls are checked through precompiled summaries.")
+  final void
+  librarySummaries(@TempDir Path bundles) throws Exception {
+    final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_18_LibrarySummaries";
+
+    // One bundle written by hand for java.util, one inferred from the helper library.
+    final Path jdk = bundles.resolve("java-util.ksum");
+    LibrarySummaries.write(jdk, "java.util", "11",
+      LibrarySummaryTool.readSpec(Path.of("target/classes/summaries/java-util.summary")));
+    final Path careClasses = bundles.resolve("care/ca/sfu/cmpt745/ex06/kittens");
+    Files.createDirectories(careClasses);
+    Files.copy(Path.of("target/classes/ca/sfu/cmpt745/ex06/kittens/KittenCare.class"),
+               careClasses.resolve("KittenCare.class"));
+    final Path care = bundles.resolve("care.ksum");
+    LibrarySummaries.write(care, "kitten-care", "1.0",
+      LibrarySummaryTool.infer(List.of(bundles.resolve("care").toString()),
+                               LibrarySummaryTool.DEFAULT_SOOT_CLASSPATH, ProtocolRegistry.defaults()));
+
+    final String[] args = new String[] {
+      "-p", "jtp.KittenChecker", "summaries:" + jdk + ":" + care, exampleName
+    };
+    context.check(reporter, args);
+
+    // Each kitten is scared, directly or by a helper, before being petted. A
+    // default passed to `orElse` is not stored in the Optional, and a kitten
+    // taken out of a list is tracked as the one object it is.
+    final var errors = reporter.errorStore();
+    assertEquals(6, errors.lineCount());
+    for (int line : new int[] { 16, 21, 25, 29, 43, 51 }) {
+      final var onLine = errors.onLine(exampleName, line).toList();
+      assertEquals(1, onLine.size());
+      assertEquals("running", onLine.get(0).source);
+      assertEquals("sleeping", onLine.get(0).target);
+    }
+  }
+
+  @Test
+  @DisplayName("Check that hybrid mode monitors only undecided calls.")
+  final void
+  hybridMonitors(@TempDir Path output) throws Exception {
+    final String exampleName = "ca.sfu.cmpt745.ex06.examples.Test_15_HybridMonitors";
+    final String[] args = new String[] {
+      "-p", "jtp.KittenChecker", "hybrid:true", "-d", output.toString(), exampleName
+    };
+
+    context.check(reporter, args);
+
+    // The definite error is still reported statically.
+    final var errors = reporter.errorStore();
+    assertEquals(1, errors.lineCount());
+    final var onLine = errors.onLine(exampleName, 20).toList();
+    assertEquals(1, onLine.size());
+    assertEquals("running", onLine.get(0).source);
+    assertEquals("sleeping", onLine.get(0).target);
+
+    // Only the call after the merge is instrumented. The loop only ever
+    // teases a running or playing kitten, so it needs no monitor.
+    final var monitors = reporter.getMonitors();
+    assertEquals(1, monitors.size());
+    assertEquals(13, monitors.get(0).line);
+    assertEquals("$r0", monitors.get(0).variable);
+    assertTrue(monitors.stream().noneMatch(monitor -> monitor.line == 27));
+
+    // The rewritten class only complains on the path that really is wrong.
+    final var urls = new URL[] { output.toUri().toURL(), Path.of("target/classes").toUri().toURL() };
+    try (final var loader = new URLClassLoader(urls, ClassLoader.getPlatformClassLoader())) {
+      final var monitor = loader.loadClass("ca.sfu.cmpt745.ex06.checker.KittenMonitor");
+      final var example = loader.loadClass(exampleName);
+      final var instance = example.getConstructor().newInstance();
+      final var test = example.getMethod("test", boolean.class);
+
+      test.invoke(instance, false);
+      assertEquals(1L, monitor.getMethod("checks").invoke(null));
+      assertEquals(0L, monitor.getMethod("violations").invoke(null));
+
+      test.invoke(instance, true);
+      assertEquals(2L, monitor.getMethod("checks").invoke(null));
+      assertEquals(1L, monitor.getMethod("violations").invoke(null));
+    }
+  }
+
+  @Test
+  @DisplayName("Check that solving regions in parallel finds the same errors.")
+  final void
+  parallelRegions() throws Exception {
+    // Several Soot threads report in a different order on every run, so the
+    // reports only match because they are written in a fixed order.
+    final String[] examples = KittenCheckerBenchmark.exampleArgs();
+    final String[] args = new String[examples.length + 5];
+    args[0] = "-num-threads";
+    args[1] = "4";
+    args[2] = "-p";
+    args[3] = "jtp.KittenChecker";
+    System.arraycopy(examples, 0, args, 5, examples.length);
+
+    args[4] = "parallel-threshold:0";
+    context.check(reporter, args);
+
+    // A threshold of one solves every body on the fork-join pool.
+    final var parallelReporter = new JsonKittenReporter();
+    args[4] = "parallel-threshold:1";
+    new KittenAnalysisContext(".:target/classes:VIRTUAL_FS_FOR_JDK").check(parallelReporter, args);
+
+    assertTrue(reporter.errorStore().size() > 0);
+    assertEquals(dump(reporter), dump(parallelReporter));
+  }
+
+  private static String dump(JsonKittenReporter reporter) {
+    final var bytes = new ByteArrayOutputStream();
+    reporter.dumpErrors(new PrintStream(bytes));
+    return bytes.toString();
+  }
+}
@@ -0,0 +1,118 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+
+class KittenErrorStoreTests {
+  static final String FIRST  = "example.First";
+  static final String SECOND = "example.Second";
+  static final String TEST   = "void test()";
+  static final String OTHER  = "void other(boolean)";
+
+  KittenErrorStore store = null;
+
+  @BeforeEach
+  final void
+  fillStore() {
+    store = new KittenErrorStore();
+    store.add(FIRST,  TEST,  "$r0", 12, "sleeping", "running");
+    store.add(SECOND, TEST,  "$r1", 12, "plotting", "eating");
+    store.add(FIRST,  OTHER, "$r2", 30, "playing",  "sleeping");
+    store.add(FIRST,  TEST,  "$r3",  8, "plotting", "playing");
+    store.add(FIRST,  TEST,  "$r0", 12, "plotting", "sleeping");
+  }
+
+  @Test
+  @DisplayName("Check that errors on the same line of different classes stay apart")
+  final void
+  linesAreScopedByClass() {
+    assertEquals(5, store.size());
+    assertEquals(4, store.lineCount());
+    assertEquals(3, store.lineCount(FIRST));
+    assertEquals(1, store.lineCount(SECOND));
+
+    final var onLine = store.onLine(FIRST, 12).toList();
+    assertEquals(2, onLine.size());
+    assertEquals("running", onLine.get(0).source);
+    assertEquals("sleeping", onLine.get(1).source);
+  }
+
+  @Test
+  @DisplayName("Check range, method and variable queries")
+  final void
+  scopedQueries() {
+    assertEquals(List.of(8, 12, 12), lines(store.inLines(FIRST, 1, 20)));
+    assertEquals(List.of(12, 12, 30), lines(store.inLines(FIRST, 12, 40)));
+    assertEquals(List.of(30), lines(store.inMethod(FIRST, OTHER)));
+    assertEquals(List.of(12, 12), lines(store.forVariable(FIRST, TEST, "$r0")));
+    assertFalse(store.inMethod(SECOND, OTHER).next());
+    assertFalse(store.inClass("example.Missing").next());
+  }
+
+  @Test
+  @DisplayName("Check that indexes are rebuilt after more errors arrive")
+  final void
+  addingAfterQuerying() {
+    assertEquals(List.of(12), lines(store.inClass(SECOND)));
+    for (int line = 100; line > 0; line -= 10) {
+      store.add(SECOND, OTHER, "$r9", line, "sleeping", "running");
+    }
+    assertEquals(List.of(10, 12, 20), lines(store.inLines(SECOND, 0, 25)));
+    assertEquals(10, store.inMethod(SECOND, OTHER).toList().size());
+  }
+
+  @Test
+  @DisplayName("Check that all errors come back in name order, however they were reported")
+  final void
+  allIsOrderedByName() {
+    final var reversed = new KittenErrorStore();
+    reversed.add(FIRST,  TEST,  "$r0", 12, "plotting", "sleeping");
+    reversed.add(FIRST,  TEST,  "$r3",  8, "plotting", "playing");
+    reversed.add(FIRST,  OTHER, "$r2", 30, "playing",  "sleeping");
+    reversed.add(SECOND, TEST,  "$r1", 12, "plotting", "eating");
+    reversed.add(FIRST,  TEST,  "$r0", 12, "sleeping", "running");
+
+    final List<String> expected = List.of(
+      FIRST + " " + OTHER + " 30 $r2 playing",
+      FIRST + " " + TEST + " 8 $r3 plotting",
+      FIRST + " " + TEST + " 12 $r0 plotting",
+      FIRST + " " + TEST + " 12 $r0 sleeping",
+      SECOND + " " + TEST + " 12 $r1 plotting");
+    assertEquals(expected, rows(store.all()));
+    assertEquals(expected, rows(reversed.all()));
+  }
+
+  @Test
+  @DisplayName("Check that a copy does not see errors added to the original")
+  final void
+  copiesAreIndependent() {
+    final var copy = store.copy();
+    store.add(SECOND, OTHER, "$r9", 40, "sleeping", "running");
+    assertEquals(5, copy.size());
+    assertEquals(1, copy.lineCount(SECOND));
+    assertEquals(2, store.lineCount(SECOND));
+  }
+
+  private static List<String> rows(KittenErrorStore.Cursor cursor) {
+    final var rows = new ArrayList<String>();
+    while (cursor.next()) {
+      rows.add(cursor.className() + " " + cursor.methodName() + " " + cursor.line() + " "
+               + cursor.variable() + " " + cursor.target());
+    }
+    return rows;
+  }
+
+  private static List<Integer> lines(KittenErrorStore.Cursor cursor) {
+    final var lines = new ArrayList<Integer>();
+    while (cursor.next()) {
+      lines.add(cursor.line());
+    }
+    return lines;
+  }
+}
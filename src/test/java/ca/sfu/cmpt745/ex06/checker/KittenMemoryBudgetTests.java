@@ -0,0 +1,290 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.parallel.Isolated;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import soot.Body;
+import soot.BodyTransformer;
+
+
+/**
+ * Memory budgets for the checker on standard workloads: the examples and a
+ * synthetic corpus. Allocation is counted per analyzed unit with the
+ * per-thread allocation counters of {@link com.sun.management.ThreadMXBean},
+ * on whichever threads Soot runs the checker. Retained heap is the estimated
+ * size of everything reachable from the reporter after a run, which is all a
+ * run may keep: whole-heap readings cannot resolve it from collector noise.
+ * A run that leaks anything else is caught by its checker outliving it.
+ *
+ * Budgets live in `memory-budgets.properties`. Any of them can be overridden
+ * with `-Dkitten.budget.<name>=<value>`. Heap measurements need a quiet JVM,
+ * so these tests never run alongside others.
+ */
+@Isolated
+class KittenMemoryBudgetTests {
+  static final String SOOT_CLASSPATH = ".:target/classes:VIRTUAL_FS_FOR_JDK";
+  static final int SYNTHETIC_CLASSES = 20;
+  static final int SYNTHETIC_METHODS = 20;
+  static final String[] OPTIONS = { "-f", "n", "-allow-phantom-refs" };
+  static final int RUNS = 3;
+
+  static final com.sun.management.ThreadMXBean threads =
+    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  static final Properties budgets = new Properties();
+  static Path syntheticCorpus;
+
+  @BeforeAll
+  static void
+  setUp(@TempDir Path work) throws IOException {
+    try (final InputStream in = KittenMemoryBudgetTests.class.getResourceAsStream("/memory-budgets.properties")) {
+      budgets.load(in);
+    }
+    // Compiled up front, so that none of javac's garbage lands between measurements.
+    syntheticCorpus = KittenCheckerBenchmark.SyntheticCorpus.write(work, SYNTHETIC_CLASSES, SYNTHETIC_METHODS);
+    assertTrue(threads.isThreadAllocatedMemorySupported(), "This JVM cannot count allocated bytes");
+    threads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  @Test
+  @DisplayName("Check allocation per unit and retained heap on the examples")
+  final void
+  examples() throws IOException {
+    checkBudgets("examples", KittenCheckerBenchmark.exampleArgs());
+  }
+
+  @Test
+  @DisplayName("Check allocation per unit and retained heap on a synthetic corpus")
+  final void
+  synthetic() {
+    checkBudgets("synthetic", new String[] { "-process-dir", syntheticCorpus.toString() });
+  }
+
+  @Test
+  @DisplayName("Check allocation per error when writing the JSON report")
+  final void
+  reportDump() throws IOException {
+    final var reporter = new JsonKittenReporter();
+    final int errors = 20_000;
+    for (int i = 0; i < errors; ++i) {
+      reporter.reportError("example.Class" + (i % 50), "void test()", "$r" + (i % 7), i % 400,
+                           "sleeping", "running");
+    }
+    // Once to warm up, then measured.
+    final var sink = new PrintStream(OutputStream.nullOutputStream());
+    reporter.dumpErrors(sink);
+    final long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    reporter.dumpErrors(sink);
+    final long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+
+    assertWithin("reporter.dump-bytes-per-error", allocated / (double) errors);
+  }
+
+  private void checkBudgets(String workload, String[] classes) {
+    final String[] args = concat(OPTIONS, classes);
+    // The same run first loads classes and fills one-time caches, so that
+    // none of them are allocated while a run is measured.
+    measure(args);
+    final Measurement measurement = measure(args);
+    collectUntilCleared(measurement.checker);
+
+    assertTrue(measurement.units.get() > 0, "No units were analyzed for " + workload);
+    // Soot's globals hold the checker, so this catches a leaked run.
+    assertTrue(measurement.checker.get() == null, "The checker outlived its run on " + workload);
+    assertWithin(workload + ".allocated-bytes-per-unit",
+                 measurement.allocated.get() / (double) measurement.units.get());
+    assertWithin(workload + ".retained-bytes", Footprint.of(measurement.reporter));
+  }
+
+  private static Measurement measure(String[] args) {
+    final var measurement = new Measurement();
+    final var checker = new KittenChecker(measurement.reporter);
+    measurement.checker = new WeakReference<>(checker);
+    final var transformer = new BodyTransformer() {
+      @Override
+      protected void internalTransform(Body body, String phase, Map<String, String> options) {
+        final long thread = Thread.currentThread().getId();
+        final int units = body.getUnits().size();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        checker.internalTransform(body, phase, options);
+        measurement.allocated.addAndGet(threads.getThreadAllocatedBytes(thread) - before);
+        measurement.units.addAndGet(units);
+      }
+    };
+    final int threadsBefore = threads.getThreadCount();
+    final PrintStream out = System.out;
+    try {
+      // Error messages would count against the reporter, but only to the console.
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+      new KittenAnalysisContext(SOOT_CLASSPATH).check(checker, transformer, args);
+    } finally {
+      System.setOut(out);
+    }
+    awaitThreadCount(threadsBefore);
+    return measurement;
+  }
+
+  /**
+   * Soot's body pack workers inherit the context, and with it all of the
+   * run's Soot globals, until they exit shortly after the run.
+   */
+  private static void awaitThreadCount(int count) {
+    final long deadline = System.nanoTime() + 5_000_000_000L;
+    while (threads.getThreadCount() > count && System.nanoTime() < deadline) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /** Collects garbage until `reference` is cleared, or a few collections have not cleared it. */
+  private static void collectUntilCleared(WeakReference<?> reference) {
+    for (int attempt = 0; attempt < 10 && reference.get() != null; ++attempt) {
+      System.gc();
+    }
+  }
+
+  private static void assertWithin(String name, double measured) {
+    final double budget = Double.parseDouble(
+      System.getProperty("kitten.budget." + name, budgets.getProperty(name)));
+    System.out.printf("%s: %.0f of %.0f%n", name, measured, budget);
+    assertTrue(measured <= budget,
+               String.format("%s is %.0f, over its budget of %.0f", name, measured, budget));
+  }
+
+  private static String[] concat(String[] first, String[] second) {
+    final String[] all = new String[first.length + second.length];
+    System.arraycopy(first, 0, all, 0, first.length);
+    System.arraycopy(second, 0, all, first.length, second.length);
+    return all;
+  }
+
+  /**
+   * An estimate of the bytes reachable from an object, for a 64-bit JVM with
+   * compressed references. The reporter's own classes are walked field by
+   * field. The JDK types they hold are sized from their contents, because
+   * their fields are not accessible.
+   */
+  static final class Footprint {
+    private static final int HEADER = 12;
+    private static final int REFERENCE = 4;
+
+    private final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    static long of(Object root) {
+      return new Footprint().sizeOf(root);
+    }
+
+    private long sizeOf(Object object) {
+      if (object == null || !seen.add(object)) {
+        return 0;
+      }
+      final Class<?> type = object.getClass();
+      if (object instanceof String) {
+        // The String and its Latin-1 byte array.
+        return align(HEADER + 12) + align(HEADER + 4 + ((String) object).length());
+      } else if (object instanceof Number || object instanceof Boolean || object instanceof Character) {
+        return align(HEADER + 8);
+      } else if (type.isArray()) {
+        return sizeOfArray(object, type.getComponentType());
+      } else if (object instanceof Collection) {
+        long size = align(HEADER + 16) + align(HEADER + 4 + REFERENCE * ((Collection<?>) object).size());
+        for (Object element : (Collection<?>) object) {
+          size += sizeOf(element);
+        }
+        return size;
+      } else if (object instanceof Map) {
+        // The table, plus a node holding the hash, key, value and next node for each entry.
+        final Map<?, ?> map = (Map<?, ?>) object;
+        long size = align(HEADER + 32) + align(HEADER + 4 + REFERENCE * 2 * map.size())
+          + map.size() * align(HEADER + 4 + 3 * REFERENCE);
+        for (var entry : map.entrySet()) {
+          size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+        }
+        return size;
+      }
+      return sizeOfFields(object, type);
+    }
+
+    private long sizeOfArray(Object array, Class<?> component) {
+      final int length = Array.getLength(array);
+      if (component.isPrimitive()) {
+        return align(HEADER + 4 + (long) length * primitiveSize(component));
+      }
+      long size = align(HEADER + 4 + (long) length * REFERENCE);
+      for (int i = 0; i < length; ++i) {
+        size += sizeOf(Array.get(array, i));
+      }
+      return size;
+    }
+
+    private long sizeOfFields(Object object, Class<?> type) {
+      long shallow = HEADER;
+      long deep = 0;
+      for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+        for (Field field : c.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers())) {
+            continue;
+          }
+          if (field.getType().isPrimitive()) {
+            shallow += primitiveSize(field.getType());
+            continue;
+          }
+          shallow += REFERENCE;
+          field.setAccessible(true);
+          try {
+            deep += sizeOf(field.get(object));
+          } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      }
+      return align(shallow) + deep;
+    }
+
+    private static int primitiveSize(Class<?> type) {
+      if (type == long.class || type == double.class) {
+        return 8;
+      } else if (type == int.class || type == float.class) {
+        return 4;
+      } else if (type == short.class || type == char.class) {
+        return 2;
+      }
+      return 1;
+    }
+
+    private static long align(long bytes) {
+      return (bytes + 7) & ~7L;
+    }
+  }
+
+  private static final class Measurement {
+    final JsonKittenReporter reporter = new JsonKittenReporter();
+    final AtomicLong allocated = new AtomicLong();
+    final AtomicLong units = new AtomicLong();
+    WeakReference<KittenChecker> checker;
+  }
+}
@@ -0,0 +1,63 @@
+package ca.sfu.cmpt745.ex06.checker;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+class LibrarySummariesTests {
+  static final String ADD  = "<java.util.List: boolean add(java.lang.Object)>";
+  static final String GET  = "<java.util.List: java.lang.Object get(int)>";
+  static final String CALM = "<com.example.Care: void calm(ca.sfu.cmpt745.ex06.kittens.Kitten)>";
+
+  @Test
+  @DisplayName("Check that summary lines survive parsing and printing")
+  final void
+  parseAndPrint() {
+    final var summary = MethodSummary.parse(CALM + " call 0 pet feed; return 0");
+    assertEquals(CALM, summary.signature);
+    assertEquals(2, summary.effects.size());
+    assertEquals(MethodSummary.Kind.CALL, summary.effects.get(0).kind);
+    assertEquals(List.of("pet", "feed"), summary.effects.get(0).methods);
+    assertEquals(CALM + " call 0 pet feed; return 0", summary.toString());
+    assertEquals(MethodSummary.RECEIVER, MethodSummary.parse(GET + " load").effects.get(0).argument);
+    final var orElse = MethodSummary.parse(GET + " load; may_return 1");
+    assertEquals(MethodSummary.Kind.MAY_RETURN, orElse.effects.get(1).kind);
+    assertEquals(GET + " load; may_return 1", orElse.toString());
+    assertThrows(IllegalArgumentException.class, () -> MethodSummary.parse(GET + " store"));
+  }
+
+  @Test
+  @DisplayName("Check that a written bundle maps back to the same summaries")
+  final void
+  roundTrip(@TempDir Path directory) throws Exception {
+    final Path bundle = directory.resolve("library.ksum");
+    LibrarySummaries.write(bundle, "library", "1.2", List.of(
+      MethodSummary.parse(GET + " load"),
+      MethodSummary.parse(CALM + " call 0 pet"),
+      MethodSummary.parse(ADD + " store 0")));
+
+    final var summaries = LibrarySummaries.load(List.of(bundle));
+    assertEquals(List.of("library:1.2"), summaries.libraries());
+    assertEquals(ADD + " store 0", summaries.find(ADD).toString());
+    assertEquals(GET + " load", summaries.find(GET).toString());
+    assertEquals(CALM + " call 0 pet", summaries.find(CALM).toString());
+    assertNull(summaries.find("<java.util.List: int size()>"));
+    assertNull(summaries.find("<java.util.List: boolean add(java.lang.Object)"));
+  }
+
+  @Test
+  @DisplayName("Check that files that are not bundles are rejected")
+  final void
+  rejectsOtherFiles(@TempDir Path directory) throws Exception {
+    final Path file = directory.resolve("other.ksum");
+    Files.writeString(file, "not a bundle");
+    assertThrows(IllegalArgumentException.class, () -> LibrarySummaries.load(List.of(file)));
+  }
+}